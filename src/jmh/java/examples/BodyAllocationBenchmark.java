@@ -0,0 +1,81 @@
+package examples;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares reading a request body and writing a response body with the String round-trip that
+ * StartService used to do (readAllBytes() + new String(), getBytes()) and with {@link Utf8Bodies}.
+ *
+ * <p>Run with: ./gradlew jmh -PjmhIncludes=BodyAllocation
+ *
+ * <p>{@code gc.alloc.rate.norm}, from the gc profiler enabled in build.gradle, is the number of
+ * bytes allocated per request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BodyAllocationBenchmark {
+  private static final OutputStream NULL_OUTPUT = OutputStream.nullOutputStream();
+
+  /** The number of pets in the simulated AddUser payload. */
+  @Param({"10", "1000"})
+  public int petCount;
+
+  private String body;
+  private byte[] bodyBytes;
+  private ByteArrayInputStream requestBody;
+
+  @Setup
+  public void setUp() {
+    body = buildBody(petCount);
+    bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+    requestBody = new ByteArrayInputStream(bodyBytes);
+    System.out.printf("%nBody: %d bytes%n", bodyBytes.length);
+  }
+
+  @Benchmark
+  public String readAllBytesAndGetBytes() throws IOException {
+    requestBody.reset();
+    final String request = new String(requestBody.readAllBytes(), StandardCharsets.UTF_8);
+    NULL_OUTPUT.write(body.getBytes(StandardCharsets.UTF_8));
+    return request;
+  }
+
+  @Benchmark
+  public String utf8Bodies() throws IOException {
+    requestBody.reset();
+    final String request = Utf8Bodies.read(requestBody, bodyBytes.length);
+    Utf8Bodies.write(NULL_OUTPUT, body);
+    return request;
+  }
+
+  /** A dense-JSON AddUser request with {@code petCount} pets and non-ASCII strings. */
+  private static String buildBody(int petCount) {
+    final StringBuilder result = new StringBuilder("AddUser:0::[[42,\"Jane Doe\",\"Ça va? 🙂\",[");
+    for (int i = 0; i < petCount; i++) {
+      if (i > 0) {
+        result.append(',');
+      }
+      result.append("[\"Pet #").append(i).append("\",0.5,\"🐶🐱🐭\"]");
+    }
+    return result.append("],[1]]]").toString();
+  }
+}
@@ -0,0 +1,146 @@
+package examples;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import land.soia.JsonFlavor;
+import okio.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import soiagen.user.Constants;
+import soiagen.user.SubscriptionStatus;
+import soiagen.user.User;
+
+/**
+ * Compares the serialization paths of {@link User}: dense JSON, readable JSON and binary, in both
+ * directions, on users of different shapes.
+ *
+ * <p>Run with: ./gradlew jmh
+ *
+ * <p>Only some fixtures: ./gradlew jmhJar, then java -jar build/libs/*-jmh.jar UserSerialization -p
+ * fixture=TARZAN,PETS_1000 -prof gc
+ *
+ * <p>The gc profiler is enabled in build.gradle: {@code gc.alloc.rate.norm} is the number of bytes
+ * allocated per operation. The encoded size of each fixture in each format is printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UserSerializationBenchmark {
+  public enum Fixture {
+    /** The TARZAN constant from user.soia. */
+    TARZAN,
+    PETS_0,
+    PETS_10,
+    PETS_1000,
+    /** A 64KB quote. */
+    LONG_QUOTE,
+    /** A name, a quote and pets made of emojis, which need 4 bytes each in UTF-8. */
+    EMOJI;
+
+    User build() {
+      return switch (this) {
+        case TARZAN -> Constants.TARZAN;
+        case PETS_0 -> withPets(0);
+        case PETS_10 -> withPets(10);
+        case PETS_1000 -> withPets(1000);
+        case LONG_QUOTE -> Constants.TARZAN.toBuilder().setQuote("Aa".repeat(32 * 1024)).build();
+        case EMOJI -> {
+          final List<User.Pet> pets = new ArrayList<>();
+          for (int i = 0; i < 10; i++) {
+            pets.add(
+                User.Pet.builder()
+                    .setHeightInMeters(0.5f + i)
+                    .setName("🐶🐱🐭🐹🐰".repeat(4))
+                    .setPicture("🦊🐻🐼🐨🐯".repeat(20))
+                    .build());
+          }
+          yield Constants.TARZAN.toBuilder()
+              .setName("🦍🌴".repeat(8))
+              .setQuote("🙈🙉🙊".repeat(300))
+              .setPets(pets)
+              .build();
+        }
+      };
+    }
+
+    private static User withPets(int petCount) {
+      final List<User.Pet> pets = new ArrayList<>(petCount);
+      for (int i = 0; i < petCount; i++) {
+        pets.add(
+            User.Pet.builder()
+                .setHeightInMeters(1.0f + i % 100 / 100f)
+                .setName("Pet " + i)
+                .setPicture("🐕")
+                .build());
+      }
+      return User.builder()
+          .setName("John Doe")
+          .setPets(pets)
+          .setQuote("Coffee is just a socially acceptable form of rage.")
+          .setSubscriptionStatus(SubscriptionStatus.PREMIUM)
+          .setUserId(42)
+          .build();
+    }
+  }
+
+  @Param public Fixture fixture;
+
+  private User user;
+  private String denseJson;
+  private String readableJson;
+  private byte[] bytes;
+
+  @Setup
+  public void setUp() {
+    user = fixture.build();
+    denseJson = User.SERIALIZER.toJsonCode(user);
+    readableJson = User.SERIALIZER.toJsonCode(user, JsonFlavor.READABLE);
+    bytes = User.SERIALIZER.toBytes(user).toByteArray();
+    System.out.printf(
+        "%n%s: dense JSON %d chars, readable JSON %d chars, binary %d bytes%n",
+        fixture, denseJson.length(), readableJson.length(), bytes.length);
+  }
+
+  @Benchmark
+  public String toJsonCodeDense() {
+    return User.SERIALIZER.toJsonCode(user);
+  }
+
+  @Benchmark
+  public String toJsonCodeReadable() {
+    return User.SERIALIZER.toJsonCode(user, JsonFlavor.READABLE);
+  }
+
+  @Benchmark
+  public ByteString toBytes() {
+    return User.SERIALIZER.toBytes(user);
+  }
+
+  @Benchmark
+  public User fromJsonCodeDense() {
+    return User.SERIALIZER.fromJsonCode(denseJson);
+  }
+
+  @Benchmark
+  public User fromJsonCodeReadable() {
+    return User.SERIALIZER.fromJsonCode(readableJson);
+  }
+
+  @Benchmark
+  public User fromBytes() {
+    return User.SERIALIZER.fromBytes(bytes);
+  }
+}
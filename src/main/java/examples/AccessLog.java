@@ -0,0 +1,245 @@
+package examples;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous, level-gated log for the request path. The server's other components report their
+ * errors to it too, so that everything goes to one output and honors --log-level.
+ *
+ * <p>Request threads never format or write anything: they publish a small entry into a lock-free
+ * ring buffer and return. A background thread drains the buffer, formats the entries and writes
+ * them to the output. If the buffer is full, because requests come in faster than the output can
+ * absorb them, entries are dropped and counted rather than slowing down the requests. The writer
+ * thread parks when the buffer is empty and is unparked by the next publish; a request thread only
+ * pays for the unpark when the writer is idle.
+ *
+ * <p>{@link #close} writes the entries still in the buffer before returning.
+ *
+ * <p>Request and response payloads are never formatted unless the level is {@link Level#DEBUG}.
+ */
+public final class AccessLog implements Closeable {
+  public enum Level {
+    OFF,
+    /** Errors only. */
+    ERROR,
+    /** Errors and one line per request: method, status, response size and latency. */
+    INFO,
+    /** Everything, including messages which format payloads. */
+    DEBUG;
+
+    public static Level parse(String value) {
+      return Level.valueOf(value.toUpperCase());
+    }
+  }
+
+  private static final int DEFAULT_CAPACITY = 64 * 1024;
+  private static final long CLOSE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+  private final Level level;
+  private final Writer out;
+  private final AtomicReferenceArray<Entry> ring;
+  private final int mask;
+  // Next sequence to be claimed by a producer.
+  private final AtomicLong tail = new AtomicLong();
+  // Next sequence to be consumed by the writer thread.
+  private volatile long head;
+  private final LongAdder dropped = new LongAdder();
+  // Null if the level is OFF.
+  private final Thread writerThread;
+  // Set by the writer thread before it parks, so that publish() knows to unpark it.
+  private volatile boolean writerWaiting;
+  private volatile boolean closed;
+
+  /** Creates a log writing to standard output. */
+  public AccessLog(Level level) {
+    this(level, new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+  }
+
+  public AccessLog(Level level, Writer out) {
+    this.level = level;
+    this.out = out;
+    this.ring = new AtomicReferenceArray<>(DEFAULT_CAPACITY);
+    this.mask = DEFAULT_CAPACITY - 1;
+    if (level != Level.OFF) {
+      writerThread = new Thread(this::runWriter, "access-log-writer");
+      writerThread.setDaemon(true);
+      writerThread.start();
+    } else {
+      writerThread = null;
+    }
+  }
+
+  public boolean isEnabled(Level level) {
+    return level != Level.OFF && level.compareTo(this.level) <= 0;
+  }
+
+  /** Logs one request at the INFO level. */
+  public void request(
+      String httpMethod, String soiaMethod, int statusCode, long responseBytes, long latencyNanos) {
+    if (isEnabled(Level.INFO)) {
+      publish(
+          new Entry(
+              Level.INFO, httpMethod, soiaMethod, statusCode, responseBytes, latencyNanos, null));
+    }
+  }
+
+  public void error(String message) {
+    if (isEnabled(Level.ERROR)) {
+      publish(new Entry(Level.ERROR, null, null, 0, 0, 0, message));
+    }
+  }
+
+  /** The message is only built if the DEBUG level is enabled. */
+  public void debug(Supplier<String> message) {
+    if (isEnabled(Level.DEBUG)) {
+      publish(new Entry(Level.DEBUG, null, null, 0, 0, 0, message.get()));
+    }
+  }
+
+  /** Returns the number of entries dropped because the buffer was full. */
+  public long droppedCount() {
+    return dropped.sum();
+  }
+
+  private void publish(Entry entry) {
+    long sequence;
+    do {
+      sequence = tail.get();
+      if (sequence - head >= ring.length()) {
+        dropped.increment();
+        return;
+      }
+    } while (!tail.compareAndSet(sequence, sequence + 1));
+    ring.set((int) sequence & mask, entry);
+    if (writerWaiting) {
+      LockSupport.unpark(writerThread);
+    }
+  }
+
+  /**
+   * Writes the entries published so far and stops the writer thread. Waits a few seconds at most,
+   * so that a stuck output cannot hold up the shutdown. Entries published afterwards are dropped.
+   */
+  @Override
+  public void close() {
+    if (writerThread == null || closed) {
+      return;
+    }
+    closed = true;
+    LockSupport.unpark(writerThread);
+    try {
+      writerThread.join(CLOSE_TIMEOUT_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void runWriter() {
+    long reportedDropped = 0;
+    while (!closed || head != tail.get()) {
+      boolean wroteAny = false;
+      try {
+        Entry entry;
+        // A null slot is either empty or claimed by a producer which has not stored its entry yet;
+        // in both cases it is picked up on a later pass.
+        while ((entry = ring.get((int) head & mask)) != null) {
+          ring.set((int) head & mask, null);
+          head = head + 1;
+          entry.writeTo(out);
+          wroteAny = true;
+        }
+        final long totalDropped = dropped.sum();
+        if (totalDropped != reportedDropped) {
+          out.write("access log: dropped " + (totalDropped - reportedDropped) + " entries\n");
+          reportedDropped = totalDropped;
+          wroteAny = true;
+        }
+        if (wroteAny) {
+          out.flush();
+        }
+      } catch (IOException e) {
+        // Nowhere left to report it.
+      }
+      if (!wroteAny) {
+        if (closed) {
+          // A producer has claimed the next slot but not stored its entry yet.
+          Thread.onSpinWait();
+          continue;
+        }
+        writerWaiting = true;
+        // Check again after setting the flag: an entry published before the producer could see
+        // the flag would otherwise wait for the next one.
+        if (ring.get((int) head & mask) == null && !closed) {
+          LockSupport.park(this);
+        }
+        writerWaiting = false;
+      }
+    }
+    try {
+      out.flush();
+    } catch (IOException e) {
+      // Nowhere left to report it.
+    }
+  }
+
+  private static final class Entry {
+    final long timeMillis = System.currentTimeMillis();
+    final Level level;
+    final String httpMethod;
+    final String soiaMethod;
+    final int statusCode;
+    final long responseBytes;
+    final long latencyNanos;
+    final String message;
+
+    Entry(
+        Level level,
+        String httpMethod,
+        String soiaMethod,
+        int statusCode,
+        long responseBytes,
+        long latencyNanos,
+        String message) {
+      this.level = level;
+      this.httpMethod = httpMethod;
+      this.soiaMethod = soiaMethod;
+      this.statusCode = statusCode;
+      this.responseBytes = responseBytes;
+      this.latencyNanos = latencyNanos;
+      this.message = message;
+    }
+
+    void writeTo(Writer out) throws IOException {
+      out.write(Instant.ofEpochMilli(timeMillis).toString());
+      out.write(' ');
+      out.write(level.name());
+      out.write(' ');
+      if (message != null) {
+        out.write(message);
+      } else {
+        out.write(httpMethod);
+        out.write(' ');
+        out.write(soiaMethod != null ? soiaMethod : "-");
+        out.write(' ');
+        out.write(Integer.toString(statusCode));
+        out.write(' ');
+        out.write(Long.toString(responseBytes));
+        out.write("B ");
+        out.write(Long.toString(TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+        out.write("us");
+      }
+      out.write('\n');
+    }
+  }
+}
@@ -0,0 +1,237 @@
+package examples;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Bounds the number of requests processed at once, with a limit which adapts to their latency.
+ *
+ * <p>A request is admitted right away while fewer than {@link #limit()} requests are in flight.
+ * Otherwise it waits in a FIFO queue for at most {@code maxQueueTime}, after which it is rejected.
+ * It is also rejected right away if {@code maxLimit} requests are already waiting. Under overload,
+ * the excess requests fail fast, and the requests which are admitted keep a bounded latency
+ * instead of all of them queuing behind each other.
+ *
+ * <p>The limit follows AIMD (additive increase, multiplicative decrease), as TCP congestion
+ * control does. A request whose latency, from admission to release, is within {@code
+ * targetLatency} raises the limit by 1/limit while the limit is reached, i.e. by 1 per window of
+ * limit requests. A slower request multiplies the limit by {@value #BACKOFF_RATIO}, at most once
+ * per targetLatency so that a burst of slow requests counts as one signal. The limit stays within
+ * [1, maxLimit].
+ *
+ * <p>Requests which wait too long are rejected on a small pool of threads of their own, so that a
+ * slow onRejected callback, e.g. one writing a response to a slow client, does not delay the
+ * expiration of the other requests.
+ */
+public final class AdmissionController implements AutoCloseable {
+  private static final double BACKOFF_RATIO = 0.9;
+
+  private final int maxLimit;
+  private final long targetLatencyNanos;
+  private final long maxQueueNanos;
+  private final AccessLog log;
+  private final ScheduledExecutorService scheduler;
+  // Runs the onRejected callbacks of the expired requests.
+  private final ExecutorService rejecter;
+  private final LongAdder rejectedCount = new LongAdder();
+
+  // Guarded by this.
+  private double limit;
+  private int inFlight;
+  private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+  private long lastDecreaseNanos;
+
+  /** A request waiting for a permit. */
+  private static final class Waiter {
+    final Consumer<Permit> onAdmitted;
+    final Runnable onRejected;
+    // Guarded by the controller.
+    ScheduledFuture<?> expiration;
+
+    Waiter(Consumer<Permit> onAdmitted, Runnable onRejected) {
+      this.onAdmitted = onAdmitted;
+      this.onRejected = onRejected;
+    }
+  }
+
+  /** Allows one request to be processed. Must be released; releasing it again has no effect. */
+  public final class Permit {
+    private final long admittedNanos = System.nanoTime();
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Permit() {}
+
+    /** Releases the permit, and takes the latency of the request into account. */
+    public void release() {
+      if (released.compareAndSet(false, true)) {
+        onRelease(System.nanoTime() - admittedNanos);
+      }
+    }
+  }
+
+  /**
+   * @param maxLimit the maximum number of requests in flight, also the maximum number of waiting
+   *     requests. 0 disables admission control: every request is admitted right away.
+   * @param targetLatency the latency above which the limit is lowered
+   * @param maxQueueTime how long a request can wait for a permit before it is rejected
+   * @param log where errors thrown by the callbacks are reported
+   */
+  public AdmissionController(
+      int maxLimit, Duration targetLatency, Duration maxQueueTime, AccessLog log) {
+    if (maxLimit < 0) {
+      throw new IllegalArgumentException("maxLimit: " + maxLimit);
+    }
+    this.maxLimit = maxLimit;
+    this.targetLatencyNanos = targetLatency.toNanos();
+    this.maxQueueNanos = maxQueueTime.toNanos();
+    this.log = log;
+    // System.nanoTime() may be negative: don't compare it with 0.
+    this.lastDecreaseNanos = System.nanoTime() - targetLatencyNanos;
+    // Start low: the limit grows quickly when the service keeps up, and a service which is already
+    // overloaded at startup is not flooded.
+    this.limit = Math.min(maxLimit, 4 * Runtime.getRuntime().availableProcessors());
+    if (maxLimit == 0) {
+      this.scheduler = null;
+      this.rejecter = null;
+    } else {
+      this.scheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              ExecutorMode.namedThreadFactory("admission-timer-"));
+      this.rejecter =
+          Executors.newFixedThreadPool(
+              Runtime.getRuntime().availableProcessors(),
+              ExecutorMode.namedThreadFactory("admission-rejecter-"));
+    }
+  }
+
+  /**
+   * Calls {@code onAdmitted} with a permit once the request is admitted, or {@code onRejected} if
+   * it is not. Either may be called on this thread before this method returns, or later on another
+   * thread.
+   */
+  public void admit(Consumer<Permit> onAdmitted, Runnable onRejected) {
+    if (maxLimit == 0) {
+      onAdmitted.accept(new Permit());
+      return;
+    }
+    final boolean admitted;
+    synchronized (this) {
+      if (inFlight < (int) limit) {
+        inFlight++;
+        admitted = true;
+      } else if (waiters.size() < maxLimit) {
+        final Waiter waiter = new Waiter(onAdmitted, onRejected);
+        waiters.add(waiter);
+        waiter.expiration =
+            scheduler.schedule(() -> expire(waiter), maxQueueNanos, TimeUnit.NANOSECONDS);
+        return;
+      } else {
+        admitted = false;
+      }
+    }
+    if (admitted) {
+      final Permit permit = new Permit();
+      try {
+        onAdmitted.accept(permit);
+      } catch (RuntimeException e) {
+        permit.release();
+        throw e;
+      }
+    } else {
+      rejectedCount.increment();
+      onRejected.run();
+    }
+  }
+
+  private void expire(Waiter waiter) {
+    synchronized (this) {
+      if (!waiters.remove(waiter)) {
+        // Admitted in the meantime.
+        return;
+      }
+    }
+    rejectedCount.increment();
+    rejecter.execute(() -> runCallback(waiter.onRejected));
+  }
+
+  private void onRelease(long latencyNanos) {
+    if (maxLimit == 0) {
+      return;
+    }
+    final List<Waiter> admitted = new ArrayList<>();
+    synchronized (this) {
+      if (latencyNanos > targetLatencyNanos) {
+        final long now = System.nanoTime();
+        if (now - lastDecreaseNanos >= targetLatencyNanos) {
+          limit = Math.max(1, limit * BACKOFF_RATIO);
+          lastDecreaseNanos = now;
+        }
+      } else if (inFlight >= (int) limit) {
+        // Only grow a limit which is actually reached, or it would drift up while idle.
+        limit = Math.min(maxLimit, limit + 1 / limit);
+      }
+      inFlight--;
+      while (inFlight < (int) limit && !waiters.isEmpty()) {
+        final Waiter waiter = waiters.poll();
+        waiter.expiration.cancel(false);
+        inFlight++;
+        admitted.add(waiter);
+      }
+    }
+    for (Waiter waiter : admitted) {
+      final Permit permit = new Permit();
+      try {
+        waiter.onAdmitted.accept(permit);
+      } catch (RuntimeException e) {
+        // Don't leave the next waiters without their callback, nor leak the permit.
+        log.error("Error admitting a request: " + e);
+        permit.release();
+      }
+    }
+  }
+
+  private void runCallback(Runnable callback) {
+    try {
+      callback.run();
+    } catch (RuntimeException e) {
+      log.error("Error rejecting a request: " + e);
+    }
+  }
+
+  /** The current limit on the number of requests in flight. */
+  public synchronized int limit() {
+    return (int) limit;
+  }
+
+  public synchronized int inFlightCount() {
+    return inFlight;
+  }
+
+  public synchronized int queuedCount() {
+    return waiters.size();
+  }
+
+  /** Number of requests rejected since creation. */
+  public long rejectedCount() {
+    return rejectedCount.sum();
+  }
+
+  /** Stops expiring the waiting requests. */
+  @Override
+  public void close() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      rejecter.shutdown();
+    }
+  }
+}
@@ -0,0 +1,510 @@
+package examples;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.net.http.HttpHeaders;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.ZipException;
+import kotlinx.coroutines.CoroutineDispatcher;
+import kotlinx.coroutines.CoroutineScope;
+import kotlinx.coroutines.CoroutineScopeKt;
+import kotlinx.coroutines.CoroutineStart;
+import kotlinx.coroutines.SupervisorKt;
+import kotlinx.coroutines.future.FutureKt;
+import land.soia.UnrecognizedFieldsPolicy;
+import land.soia.service.Method;
+import land.soia.service.Service;
+import soiagen.service.Methods;
+
+/**
+ * Serves a Soia service over an HttpServer context.
+ *
+ * <p>handleRequest() is a suspend function. Instead of blocking the exchange thread with
+ * runBlocking until it returns, the handler launches it as a coroutine on a shared dispatcher and
+ * sends the response when the resulting future completes. The exchange thread is released as soon
+ * as the request body has been read.
+ *
+ * <p>Requests and responses can use the soia binary encoding instead of JSON, see {@link
+ * BinaryWireFormat}.
+ *
+ * <p>GetUser responses are cached already encoded, see {@link GetUserResponseCache}: a cache hit
+ * is answered without calling the service. Successful GetUser responses carry an ETag, cached or
+ * not. A GET or HEAD request whose If-None-Match header matches it gets a 304 response with no
+ * body; any other request gets a 412 response, since the condition means the method must not run.
+ *
+ * <p>Responses of at least {@code compressionMinBytes} are compressed if the client accepts gzip
+ * or deflate, and compressed request bodies are accepted, see {@link HttpCompression}. Smaller
+ * responses are sent as is: compressing them would cost more CPU than it saves on the wire.
+ *
+ * <p>Request bodies larger than {@code maxRequestBytes} get a 413 response. The limit is checked
+ * against the Content-Length header before anything is read, and enforced again while the body is
+ * read, so that no client can make the handler buffer more than that.
+ *
+ * <p>Calls to the service go through an {@link AdmissionController}: under overload, the requests
+ * beyond its limit wait, and get a 503 response with a Retry-After header if they wait too long.
+ * Cache hits are always served since they do not call the service. A call which finds the {@link
+ * Bulkhead} of its method full also gets a 503 response, whatever the service makes of the
+ * rejection.
+ *
+ * <p>Every request is recorded in the {@link AccessLog}, which never blocks the request.
+ */
+public final class ApiHandler implements HttpHandler {
+  // Seconds a client rejected with a 503 response is asked to wait before it retries.
+  private static final String RETRY_AFTER_SECONDS = "1";
+
+  private final Service<?> soiaService;
+  private final BinaryWireFormat binaryWireFormat;
+  private final GetUserResponseCache getUserResponseCache;
+  private final int compressionMinBytes;
+  private final int maxRequestBytes;
+  private final AdmissionController admissionController;
+  private final AccessLog accessLog;
+  private final CoroutineScope scope;
+
+  /**
+   * @param methods the methods registered on the service, which can be called with the binary
+   *     format
+   * @param compressionMinBytes the size from which responses are compressed
+   * @param maxRequestBytes the maximum size of a request body, after decompression
+   * @param dispatcher the dispatcher on which handleRequest() and the method implementations run
+   */
+  public ApiHandler(
+      Service<?> soiaService,
+      Collection<? extends Method<?, ?>> methods,
+      GetUserResponseCache getUserResponseCache,
+      int compressionMinBytes,
+      int maxRequestBytes,
+      AdmissionController admissionController,
+      AccessLog accessLog,
+      CoroutineDispatcher dispatcher) {
+    this.soiaService = soiaService;
+    this.binaryWireFormat = new BinaryWireFormat(methods);
+    this.getUserResponseCache = getUserResponseCache;
+    this.compressionMinBytes = compressionMinBytes;
+    this.maxRequestBytes = maxRequestBytes;
+    this.admissionController = admissionController;
+    this.accessLog = accessLog;
+    // With a supervisor job, a failing request does not cancel the other in-flight requests.
+    this.scope = CoroutineScopeKt.CoroutineScope(SupervisorKt.SupervisorJob(null).plus(dispatcher));
+  }
+
+  @Override
+  public void handle(HttpExchange exchange) throws IOException {
+    final long startNanos = System.nanoTime();
+    final Headers requestHeaders = exchange.getRequestHeaders();
+    final boolean binaryRequest =
+        BinaryWireFormat.isContentType(requestHeaders.getFirst("Content-Type"));
+    final HttpCompression requestCompression;
+    try {
+      requestCompression =
+          HttpCompression.ofContentEncoding(requestHeaders.getFirst("Content-Encoding"));
+    } catch (IllegalArgumentException e) {
+      final long length = sendText(exchange, 415, "Unsupported media type: " + e.getMessage());
+      logRequest(exchange, null, length, startNanos);
+      return;
+    }
+    // Reject a body announced as too large before reading or allocating anything. The body is
+    // still counted while it is read, for requests without a Content-Length or with a wrong one.
+    if (contentLength(exchange) > maxRequestBytes) {
+      final long length = sendBodyTooLarge(exchange);
+      logRequest(exchange, null, length, startNanos);
+      return;
+    }
+    // With a compressed body, Content-Length is the length of the compressed bytes.
+    final long contentLength = requestCompression == null ? contentLength(exchange) : -1;
+
+    // Read request body
+    final String requestBody;
+    Method<?, ?> method = null;
+    try {
+      if (binaryRequest) {
+        final String methodName = requestHeaders.getFirst(BinaryWireFormat.METHOD_HEADER);
+        method = binaryWireFormat.findMethod(methodName);
+        if (method == null) {
+          final long length = sendText(exchange, 400, "Bad request: unknown method: " + methodName);
+          logRequest(exchange, methodName, length, startNanos);
+          return;
+        }
+        final byte[] bytes;
+        // Closing the body releases the native memory of the Inflater, if any.
+        try (InputStream body = openRequestBody(exchange, requestCompression)) {
+          bytes =
+              contentLength >= 0 && contentLength < Integer.MAX_VALUE
+                  ? body.readNBytes((int) contentLength)
+                  : body.readAllBytes();
+        }
+        try {
+          requestBody = BinaryWireFormat.toJsonRequestBody(method, bytes);
+        } catch (RuntimeException e) {
+          final long length =
+              sendText(exchange, 400, "Bad request: can't parse binary request: " + e.getMessage());
+          logRequest(exchange, methodName, length, startNanos);
+          return;
+        }
+      } else if ("POST".equals(exchange.getRequestMethod())) {
+        try (InputStream body = openRequestBody(exchange, requestCompression)) {
+          requestBody = Utf8Bodies.read(body, contentLength);
+        }
+      } else {
+        // For GET requests, use the query string
+        final String query = exchange.getRequestURI().getQuery();
+        requestBody = query != null ? URLDecoder.decode(query, StandardCharsets.UTF_8) : "";
+      }
+    } catch (LimitedInputStream.LimitExceededException e) {
+      final long length = sendBodyTooLarge(exchange);
+      logRequest(exchange, null, length, startNanos);
+      return;
+    } catch (ZipException | EOFException e) {
+      if (requestCompression == null) {
+        throw e;
+      }
+      final long length =
+          sendText(exchange, 400, "Bad request: can't decompress request: " + e.getMessage());
+      logRequest(exchange, null, length, startNanos);
+      return;
+    }
+    final HttpCompression responseCompression =
+        HttpCompression.negotiate(requestHeaders.getFirst("Accept-Encoding"));
+
+    // The method whose response must be converted to binary, if the client accepts it.
+    final Method<?, ?> binaryResponseMethod;
+    if (!BinaryWireFormat.isAccepted(requestHeaders.getFirst("Accept"))) {
+      binaryResponseMethod = null;
+    } else if (method != null) {
+      binaryResponseMethod = method;
+    } else {
+      binaryResponseMethod = binaryWireFormat.findMethodOfJsonRequest(requestBody);
+    }
+
+    final Integer cachedUserId = getUserResponseCache.userIdOf(requestBody);
+    final String ifNoneMatch = requestHeaders.getFirst("If-None-Match");
+    final String soiaMethodName =
+        method != null ? method.getName() : soiaMethodNameOfJsonRequest(requestBody);
+    // Also true for the GetUser requests which can't be cached, e.g. in readable JSON.
+    final boolean getUser =
+        cachedUserId != null || Methods.GET_USER.getName().equals(soiaMethodName);
+    final GetUserResponseCache.Reservation cacheReservation;
+    if (cachedUserId != null) {
+      final GetUserResponseCache.Entry entry = getUserResponseCache.get(cachedUserId);
+      if (entry != null) {
+        final long length =
+            sendEncodedResponse(
+                exchange, entry, binaryResponseMethod != null, ifNoneMatch, responseCompression);
+        logRequest(exchange, Methods.GET_USER.getName(), length, startNanos);
+        return;
+      }
+      cacheReservation = getUserResponseCache.reserve(cachedUserId);
+    } else {
+      cacheReservation = null;
+    }
+
+    // Convert headers to the format expected by Service
+    final HttpHeaders httpHeaders = HttpHeaders.of(requestHeaders, (name, value) -> true);
+
+    admissionController.admit(
+        permit -> {
+          // Set if the call is rejected by the bulkhead of its method.
+          final Bulkhead.Rejection bulkheadRejection = new Bulkhead.Rejection();
+          final CompletableFuture<Service.RawResponse> rawResponseFuture =
+              FutureKt.<Service.RawResponse>future(
+                  scope,
+                  bulkheadRejection,
+                  CoroutineStart.DEFAULT,
+                  (coroutineScope, continuation) ->
+                      soiaService.handleRequest(
+                          requestBody, httpHeaders, UnrecognizedFieldsPolicy.KEEP, continuation));
+          rawResponseFuture.whenComplete(
+              (rawResponse, error) -> {
+                // The latency which drives the limit excludes the time spent sending the response.
+                permit.release();
+                final Bulkhead.OverloadedException overloaded = bulkheadRejection.exception();
+                long length = 0;
+                try {
+                  if (overloaded != null) {
+                    length = sendServiceUnavailable(exchange, overloaded.getMessage());
+                  } else if (error == null && getUser && rawResponse.statusCode() == 200) {
+                    final GetUserResponseCache.Entry entry =
+                        cachedUserId != null
+                            ? getUserResponseCache.put(
+                                cachedUserId,
+                                cacheReservation,
+                                rawResponse.contentType(),
+                                rawResponse.data())
+                            : GetUserResponseCache.encode(
+                                rawResponse.contentType(), rawResponse.data());
+                    length =
+                        sendEncodedResponse(
+                            exchange,
+                            entry,
+                            binaryResponseMethod != null,
+                            ifNoneMatch,
+                            responseCompression);
+                  } else if (error == null
+                      && binaryResponseMethod != null
+                      && rawResponse.statusCode() == 200) {
+                    length =
+                        sendBinaryResponse(
+                            exchange, binaryResponseMethod, rawResponse, responseCompression);
+                  } else if (error == null) {
+                    length = sendResponse(exchange, rawResponse, responseCompression);
+                  } else {
+                    length = sendError(exchange, error);
+                  }
+                } catch (IOException | RuntimeException e) {
+                  accessLog.error("Error sending response: " + e.getMessage());
+                } finally {
+                  // A no-op if the response was cached: put() replaced the reservation.
+                  releaseReservation(cachedUserId, cacheReservation);
+                  exchange.close();
+                }
+                logRequest(exchange, soiaMethodName, length, startNanos);
+              });
+        },
+        () -> {
+          releaseReservation(cachedUserId, cacheReservation);
+          sendOverloaded(exchange, soiaMethodName, "too many requests in flight", startNanos);
+        });
+  }
+
+  /** Gives back the reservation of a GetUser request whose response was not cached. */
+  private void releaseReservation(
+      Integer cachedUserId, GetUserResponseCache.Reservation cacheReservation) {
+    if (cacheReservation != null) {
+      getUserResponseCache.release(cachedUserId, cacheReservation);
+    }
+  }
+
+  /** Sends a 503 response to a request rejected by the admission controller. */
+  private void sendOverloaded(
+      HttpExchange exchange, String soiaMethodName, String reason, long startNanos) {
+    long length = 0;
+    try {
+      length = sendServiceUnavailable(exchange, reason);
+    } catch (IOException | RuntimeException e) {
+      accessLog.error("Error sending response: " + e.getMessage());
+    } finally {
+      exchange.close();
+    }
+    logRequest(exchange, soiaMethodName, length, startNanos);
+  }
+
+  /** Sends a 503 response with a Retry-After header and returns its length. */
+  private static long sendServiceUnavailable(HttpExchange exchange, String reason)
+      throws IOException {
+    exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER_SECONDS);
+    return sendText(exchange, 503, "Service unavailable: " + reason);
+  }
+
+  private void logRequest(
+      HttpExchange exchange, String soiaMethodName, long responseBytes, long startNanos) {
+    accessLog.request(
+        exchange.getRequestMethod(),
+        soiaMethodName,
+        exchange.getResponseCode(),
+        responseBytes,
+        System.nanoTime() - startNanos);
+  }
+
+  /** Returns the method name of a "Method:number:format:request" body, for logging. */
+  private static String soiaMethodNameOfJsonRequest(String requestBody) {
+    final int colonIndex = requestBody.indexOf(':');
+    // Method names are short: don't scan a large body which is not in this form.
+    return colonIndex > 0 && colonIndex <= 64 ? requestBody.substring(0, colonIndex) : null;
+  }
+
+  /**
+   * Returns the length of the response body on the wire.
+   *
+   * @param compression the coding accepted by the client, or null
+   */
+  private long sendResponse(
+      HttpExchange exchange, Service.RawResponse rawResponse, HttpCompression compression)
+      throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", rawResponse.contentType());
+
+    final String data = rawResponse.data();
+    accessLog.debug(() -> "Raw response data: " + data);
+    // The response is encoded while it is written, so the length must be computed up front.
+    final long length = Utf8Bodies.encodedLength(data);
+    if (shouldCompress(exchange, length, compression)) {
+      exchange.getResponseHeaders().set("Content-Encoding", compression.token());
+      // The compressed length is only known at the end: send the response in chunks.
+      exchange.sendResponseHeaders(rawResponse.statusCode(), 0);
+      final HttpCompression.CountingOutputStream counter =
+          new HttpCompression.CountingOutputStream(exchange.getResponseBody());
+      try (OutputStream os = compression.compress(counter)) {
+        Utf8Bodies.write(os, data);
+      }
+      return counter.count();
+    }
+    // A length of 0 would mean a chunked response; -1 means no body.
+    exchange.sendResponseHeaders(rawResponse.statusCode(), length > 0 ? length : -1);
+    try (OutputStream os = exchange.getResponseBody()) {
+      Utf8Bodies.write(os, data);
+    }
+    return length;
+  }
+
+  /**
+   * Returns the length of the response body on the wire. Sends a 500 response if the response
+   * can't be converted.
+   */
+  private long sendBinaryResponse(
+      HttpExchange exchange,
+      Method<?, ?> method,
+      Service.RawResponse rawResponse,
+      HttpCompression compression)
+      throws IOException {
+    byte[] responseBytes;
+    try {
+      responseBytes = BinaryWireFormat.toBinaryResponse(method, rawResponse.data());
+    } catch (RuntimeException e) {
+      // The service returned JSON which its own serializer can't parse.
+      return sendError(exchange, e);
+    }
+    exchange.getResponseHeaders().set("Content-Type", BinaryWireFormat.CONTENT_TYPE);
+    if (shouldCompress(exchange, responseBytes.length, compression)) {
+      exchange.getResponseHeaders().set("Content-Encoding", compression.token());
+      responseBytes = compression.compress(responseBytes);
+    }
+    return sendBytes(exchange, responseBytes);
+  }
+
+  /**
+   * Sends an encoded GetUser response. If {@code ifNoneMatch} matches its ETag, sends a 304
+   * response to a GET or HEAD request and a 412 response to any other request instead, and if the
+   * response can't be converted to binary, a 500 response. Returns the length of the response body
+   * on the wire.
+   */
+  private long sendEncodedResponse(
+      HttpExchange exchange,
+      GetUserResponseCache.Entry entry,
+      boolean binary,
+      String ifNoneMatch,
+      HttpCompression compression)
+      throws IOException {
+    if (binary) {
+      // Computed on first use: fails like in sendBinaryResponse().
+      try {
+        entry.binary();
+      } catch (RuntimeException e) {
+        return sendError(exchange, e);
+      }
+    }
+    final Headers responseHeaders = exchange.getResponseHeaders();
+    // The ETag depends on the Accept header.
+    responseHeaders.add("Vary", "Accept");
+    // The coding of the response if it is sent, null for none. Content-Encoding is only set once
+    // the response is known to be sent: a 304 or 412 response has no encoded body.
+    final HttpCompression coding =
+        shouldCompress(exchange, entry.length(binary), compression) ? compression : null;
+    final String etag = entry.etag(binary, coding);
+    responseHeaders.set("ETag", etag);
+    if (GetUserResponseCache.matches(ifNoneMatch, etag)) {
+      final String httpMethod = exchange.getRequestMethod();
+      if (!"GET".equals(httpMethod) && !"HEAD".equals(httpMethod)) {
+        return sendText(exchange, 412, "Precondition failed: the response matches If-None-Match");
+      }
+      exchange.sendResponseHeaders(304, -1);
+      exchange.close();
+      return 0;
+    }
+    responseHeaders.set(
+        "Content-Type", binary ? BinaryWireFormat.CONTENT_TYPE : entry.contentType());
+    final byte[] responseBytes;
+    if (coding != null) {
+      responseHeaders.set("Content-Encoding", coding.token());
+      responseBytes = entry.compressed(binary, coding);
+    } else {
+      responseBytes = binary ? entry.binary() : entry.json();
+    }
+    return sendBytes(exchange, responseBytes);
+  }
+
+  /**
+   * Returns true if a response body of {@code length} bytes must be compressed with {@code
+   * compression}. The caller sets the Content-Encoding header if it sends the compressed body.
+   */
+  private boolean shouldCompress(HttpExchange exchange, long length, HttpCompression compression) {
+    if (length < compressionMinBytes) {
+      return false;
+    }
+    // Whether the response is compressed depends on the Accept-Encoding header.
+    exchange.getResponseHeaders().add("Vary", "Accept-Encoding");
+    return compression != null && length > 0;
+  }
+
+  /** Sends a 200 response with the given body and returns its length. */
+  private static long sendBytes(HttpExchange exchange, byte[] responseBytes) throws IOException {
+    exchange.sendResponseHeaders(200, responseBytes.length > 0 ? responseBytes.length : -1);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(responseBytes);
+    }
+    return responseBytes.length;
+  }
+
+  /** Returns the request body, decompressed, which fails if it is larger than the maximum. */
+  private InputStream openRequestBody(HttpExchange exchange, HttpCompression compression)
+      throws IOException {
+    final InputStream body = new LimitedInputStream(exchange.getRequestBody(), maxRequestBytes);
+    // The decompressed size is limited too: a small compressed body can inflate to gigabytes.
+    return compression != null
+        ? new LimitedInputStream(compression.decompress(body), maxRequestBytes)
+        : body;
+  }
+
+  /**
+   * Sends a 413 response and returns its length. The rest of the body is not read: the connection
+   * is closed after the response.
+   */
+  private long sendBodyTooLarge(HttpExchange exchange) throws IOException {
+    exchange.getResponseHeaders().set("Connection", "close");
+    return sendText(
+        exchange, 413, "Content too large: the maximum is " + maxRequestBytes + " bytes");
+  }
+
+  /** Returns the value of the Content-Length header, or -1 if absent or invalid. */
+  private static long contentLength(HttpExchange exchange) {
+    final String value = exchange.getRequestHeaders().getFirst("Content-Length");
+    if (value == null) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /** Returns the length of the response body. */
+  private long sendError(HttpExchange exchange, Throwable error) throws IOException {
+    if (error instanceof CompletionException && error.getCause() != null) {
+      error = error.getCause();
+    }
+    accessLog.error("Error handling request: " + error.getMessage());
+    return sendText(exchange, 500, "Server error: " + error.getMessage());
+  }
+
+  /** Returns the length of the response body. */
+  private static long sendText(HttpExchange exchange, int statusCode, String text)
+      throws IOException {
+    final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    // The text is never compressed.
+    exchange.getResponseHeaders().remove("Content-Encoding");
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(statusCode, bytes.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(bytes);
+    }
+    return bytes.length;
+  }
+}
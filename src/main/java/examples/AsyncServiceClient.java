@@ -0,0 +1,165 @@
+package examples;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import land.soia.Serializer;
+import land.soia.service.Method;
+
+/**
+ * Calls the methods of a soia service without blocking: invokeRemote() returns a future, and no
+ * thread waits while a call is in flight.
+ *
+ * <p>At most {@code maxInFlight} calls are sent at a time; the others wait in a queue and are sent
+ * as earlier calls complete. The timeout of a call is a deadline which includes the time spent in
+ * the queue: when it passes, the future fails with a {@link java.util.concurrent.TimeoutException}
+ * and the HTTP request, if it was sent, is cancelled.
+ *
+ * <p>Responses are parsed on the executor of the {@link HttpClient}, so a client built with a small
+ * executor can keep thousands of calls in flight on a few threads.
+ */
+public final class AsyncServiceClient {
+  private final URI serviceUri;
+  private final HttpClient httpClient;
+  private final int maxInFlight;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final Queue<Call<?, ?>> queued = new ConcurrentLinkedQueue<>();
+
+  private static final class Call<Request, Response> {
+    final Method<Request, Response> method;
+    final Request request;
+    final Map<String, ? extends List<String>> requestHeaders;
+    final long deadlineNanos;
+    final CompletableFuture<Response> response = new CompletableFuture<>();
+
+    Call(
+        Method<Request, Response> method,
+        Request request,
+        Map<String, ? extends List<String>> requestHeaders,
+        long deadlineNanos) {
+      this.method = method;
+      this.request = request;
+      this.requestHeaders = requestHeaders;
+      this.deadlineNanos = deadlineNanos;
+    }
+  }
+
+  public AsyncServiceClient(String serviceUrl, HttpClient httpClient, int maxInFlight) {
+    if (maxInFlight <= 0) {
+      throw new IllegalArgumentException("maxInFlight must be positive");
+    }
+    this.serviceUri = URI.create(serviceUrl);
+    this.httpClient = httpClient;
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * Sends the request, or queues it if {@code maxInFlight} calls are in flight.
+   *
+   * <p>The returned future fails with an IOException if the request fails or the server responds
+   * with an error, and with a TimeoutException if there is no response within {@code timeout}.
+   * Cancelling it cancels the call.
+   */
+  public <Request, Response> CompletableFuture<Response> invokeRemote(
+      Method<Request, Response> method,
+      Request request,
+      Map<String, ? extends List<String>> requestHeaders,
+      Duration timeout) {
+    final Call<Request, Response> call =
+        new Call<>(method, request, requestHeaders, System.nanoTime() + timeout.toNanos());
+    call.response.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    queued.add(call);
+    drain();
+    return call.response;
+  }
+
+  /** Returns the number of calls sent and not completed yet. */
+  public int inFlightCount() {
+    return inFlight.get();
+  }
+
+  /** Returns the number of calls waiting to be sent. */
+  public int queuedCount() {
+    return queued.size();
+  }
+
+  /** Sends queued calls while fewer than {@code maxInFlight} are in flight. */
+  private void drain() {
+    while (!queued.isEmpty()) {
+      final int current = inFlight.get();
+      if (current >= maxInFlight) {
+        // The next call to complete will drain the queue.
+        return;
+      }
+      if (!inFlight.compareAndSet(current, current + 1)) {
+        continue;
+      }
+      final Call<?, ?> call = queued.poll();
+      if (call == null || call.response.isDone()) {
+        // Another thread took the last call, or the call timed out or was cancelled in the queue.
+        inFlight.decrementAndGet();
+        continue;
+      }
+      send(call);
+    }
+  }
+
+  private <Request, Response> void send(Call<Request, Response> call) {
+    final long remainingNanos = call.deadlineNanos - System.nanoTime();
+    final Serializer<Request> requestSerializer = call.method.getRequestSerializer();
+    final CompletableFuture<HttpResponse<String>> httpResponseFuture;
+    try {
+      final HttpRequest.Builder httpRequest =
+          HttpRequest.newBuilder(serviceUri)
+              .timeout(Duration.ofNanos(Math.max(remainingNanos, 1)))
+              .header("Content-Type", "text/plain; charset=utf-8")
+              .POST(
+                  HttpRequest.BodyPublishers.ofString(
+                      BinaryWireFormat.jsonRequestPrefix(call.method)
+                          + requestSerializer.toJsonCode(call.request)));
+      call.requestHeaders.forEach(
+          (name, values) -> values.forEach(value -> httpRequest.header(name, value)));
+      httpResponseFuture =
+          httpClient.sendAsync(httpRequest.build(), HttpResponse.BodyHandlers.ofString());
+    } catch (RuntimeException e) {
+      inFlight.decrementAndGet();
+      call.response.completeExceptionally(e);
+      drain();
+      return;
+    }
+    httpResponseFuture.whenComplete(
+        (httpResponse, error) -> {
+          inFlight.decrementAndGet();
+          drain();
+          if (error != null) {
+            call.response.completeExceptionally(
+                error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause()
+                    : error);
+          } else if (httpResponse.statusCode() != 200) {
+            call.response.completeExceptionally(
+                new IOException("HTTP " + httpResponse.statusCode() + ": " + httpResponse.body()));
+          } else {
+            try {
+              call.response.complete(
+                  call.method.getResponseSerializer().fromJsonCode(httpResponse.body()));
+            } catch (RuntimeException e) {
+              call.response.completeExceptionally(e);
+            }
+          }
+        });
+    // On timeout or cancellation, stop waiting for the response.
+    call.response.whenComplete((response, error) -> httpResponseFuture.cancel(true));
+  }
+}
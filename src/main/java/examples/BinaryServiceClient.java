@@ -0,0 +1,56 @@
+package examples;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import land.soia.Serializer;
+import land.soia.service.Method;
+
+/**
+ * Calls the methods of a soia service using the binary encoding for both the request and the
+ * response, see {@link BinaryWireFormat}. The service must be served by {@link ApiHandler}.
+ */
+public final class BinaryServiceClient {
+  private final URI serviceUri;
+  private final HttpClient httpClient;
+
+  public BinaryServiceClient(String serviceUrl, HttpClient httpClient) {
+    this.serviceUri = URI.create(serviceUrl);
+    this.httpClient = httpClient;
+  }
+
+  /**
+   * Sends the request and waits for the response.
+   *
+   * @throws IOException if the request fails or the server responds with an error
+   */
+  public <Request, Response> Response invokeRemoteBlocking(
+      Method<Request, Response> method, Request request, Duration timeout)
+      throws IOException, InterruptedException {
+    final Serializer<Request> requestSerializer = method.getRequestSerializer();
+    final HttpRequest httpRequest =
+        HttpRequest.newBuilder(serviceUri)
+            .timeout(timeout)
+            .header("Content-Type", BinaryWireFormat.CONTENT_TYPE)
+            .header("Accept", BinaryWireFormat.CONTENT_TYPE)
+            .header(BinaryWireFormat.METHOD_HEADER, method.getName())
+            .POST(
+                HttpRequest.BodyPublishers.ofByteArray(
+                    requestSerializer.toBytes(request).toByteArray()))
+            .build();
+    final HttpResponse<byte[]> httpResponse =
+        httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofByteArray());
+    if (httpResponse.statusCode() != 200) {
+      throw new IOException(
+          "HTTP "
+              + httpResponse.statusCode()
+              + ": "
+              + new String(httpResponse.body(), StandardCharsets.UTF_8));
+    }
+    return method.getResponseSerializer().fromBytes(httpResponse.body());
+  }
+}
@@ -0,0 +1,112 @@
+package examples;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import land.soia.Serializer;
+import land.soia.service.Method;
+
+/**
+ * The soia binary encoding on the wire, as an alternative to JSON for the /myapi endpoint.
+ *
+ * <p>A client sends a binary request by setting the Content-Type header to {@link #CONTENT_TYPE},
+ * the {@link #METHOD_HEADER} header to the name of the method, and the body to {@code
+ * serializer.toBytes(request)}. A client asks for a binary response, whatever the format of its
+ * request, by listing {@link #CONTENT_TYPE} in its Accept header with a q-value above 0. Error
+ * responses are always plain text.
+ *
+ * <p>Soia's Service only speaks JSON, so on the server side binary requests and responses are
+ * transcoded from and to dense JSON: each one costs the server an extra parse and serialization on
+ * top of the JSON ones.
+ */
+public final class BinaryWireFormat {
+  public static final String CONTENT_TYPE = "application/x-soia-binary";
+  public static final String METHOD_HEADER = "X-Soia-Method";
+
+  private final Map<String, Method<?, ?>> nameToMethod = new HashMap<>();
+
+  /** Creates a format for calling any of {@code methods}. */
+  public BinaryWireFormat(Collection<? extends Method<?, ?>> methods) {
+    for (Method<?, ?> method : methods) {
+      nameToMethod.put(method.getName(), method);
+    }
+  }
+
+  /** Returns the method with the given name, or null. */
+  public Method<?, ?> findMethod(String name) {
+    return name != null ? nameToMethod.get(name) : null;
+  }
+
+  /**
+   * Returns the method targeted by a JSON request body in the "Method:number:format:request"
+   * form, or null.
+   */
+  public Method<?, ?> findMethodOfJsonRequest(String requestBody) {
+    final int colonIndex = requestBody.indexOf(':');
+    return colonIndex > 0 ? nameToMethod.get(requestBody.substring(0, colonIndex)) : null;
+  }
+
+  /** Returns true if {@code contentType}, the value of a Content-Type header, is the format. */
+  public static boolean isContentType(String contentType) {
+    return contentType != null && mediaTypeOf(contentType).equalsIgnoreCase(CONTENT_TYPE);
+  }
+
+  /**
+   * Returns true if {@code accept}, the value of an Accept header, lists the format with a q-value
+   * above 0. Wildcards do not count: a client which does not name the format gets JSON.
+   */
+  public static boolean isAccepted(String accept) {
+    if (accept == null) {
+      return false;
+    }
+    for (String range : accept.split(",")) {
+      if (mediaTypeOf(range).equalsIgnoreCase(CONTENT_TYPE) && qValueOf(range) > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns the media type of a Content-Type value or of an element of an Accept list. */
+  private static String mediaTypeOf(String value) {
+    final int semicolonIndex = value.indexOf(';');
+    return (semicolonIndex >= 0 ? value.substring(0, semicolonIndex) : value).trim();
+  }
+
+  /** Returns the q parameter of an element of an Accept list, 1 if absent or invalid. */
+  private static double qValueOf(String range) {
+    final String[] parts = range.split(";");
+    for (int i = 1; i < parts.length; i++) {
+      final String parameter = parts[i].trim();
+      if (parameter.length() > 2 && parameter.regionMatches(true, 0, "q=", 0, 2)) {
+        try {
+          return Double.parseDouble(parameter.substring(2).trim());
+        } catch (NumberFormatException e) {
+          return 1;
+        }
+      }
+    }
+    return 1;
+  }
+
+  /**
+   * Returns the "Method:number::" prefix of a JSON request body for {@code method}, to which the
+   * dense JSON of the request is appended. Service.handleRequest() expects this form.
+   */
+  public static String jsonRequestPrefix(Method<?, ?> method) {
+    return method.getName() + ":" + method.getNumber() + "::";
+  }
+
+  /** Converts a binary request to the JSON request body expected by Service.handleRequest(). */
+  public static <Request> String toJsonRequestBody(Method<Request, ?> method, byte[] bytes) {
+    final Serializer<Request> serializer = method.getRequestSerializer();
+    final Request request = serializer.fromBytes(bytes);
+    return jsonRequestPrefix(method) + serializer.toJsonCode(request);
+  }
+
+  /** Converts the JSON of a successful response returned by Service to the binary format. */
+  public static <Response> byte[] toBinaryResponse(Method<?, Response> method, String json) {
+    final Serializer<Response> serializer = method.getResponseSerializer();
+    return serializer.toBytes(serializer.fromJsonCode(json)).toByteArray();
+  }
+}
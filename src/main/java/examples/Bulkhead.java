@@ -0,0 +1,129 @@
+package examples;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import kotlin.coroutines.AbstractCoroutineContextElement;
+import kotlin.coroutines.Continuation;
+import kotlin.coroutines.CoroutineContext;
+import kotlinx.coroutines.Dispatchers;
+import kotlinx.coroutines.ExecutorsKt;
+import kotlinx.coroutines.future.FutureKt;
+
+/**
+ * Runs the calls to some methods of the service on a pool of threads of their own, so that a burst
+ * of calls to these methods cannot take the threads of the other methods.
+ *
+ * <p>Method implementations are wrapped when they are registered with addMethod(), e.g.:
+ *
+ * <pre>{@code
+ * .addMethod(
+ *     Methods.ADD_USER,
+ *     (req, meta, continuation) -> writes.call(() -> serviceImpl.addUser(req, meta), continuation))
+ * }</pre>
+ *
+ * <p>The coroutine which handles the request suspends while the call runs on the bulkhead's
+ * threads: it does not hold a thread of the shared dispatcher. At most {@code threads} calls run at
+ * once and up to {@code maxQueued} more wait; {@link #call} throws an {@link OverloadedException}
+ * for any other call, whichever way the request named its method. The rejection is also recorded
+ * in the {@link Rejection} of the coroutine, if any, which is how ApiHandler answers with a 503
+ * response. Under a storm of calls to one method, the callers of that method are turned away while
+ * the other methods keep their latency.
+ */
+public final class Bulkhead implements AutoCloseable {
+  private final String name;
+  // Null if calls run on Dispatchers.IO.
+  private final ExecutorService executor;
+
+  /** Thrown by {@link #call} when the bulkhead is full. */
+  public static final class OverloadedException extends RuntimeException {
+    OverloadedException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * Records the call rejected by a bulkhead in the coroutine whose context holds it. The service
+   * reports the {@link OverloadedException} like any other failure of a method: this lets the
+   * caller of the service tell a rejection apart.
+   */
+  public static final class Rejection extends AbstractCoroutineContextElement {
+    static final CoroutineContext.Key<Rejection> KEY = new CoroutineContext.Key<>() {};
+
+    private volatile OverloadedException exception;
+
+    public Rejection() {
+      super(KEY);
+    }
+
+    /** The exception thrown by the rejected call, or null if no call was rejected. */
+    public OverloadedException exception() {
+      return exception;
+    }
+  }
+
+  /**
+   * @param name the name of the bulkhead, used in thread names and error messages
+   * @param threads the number of calls which can run at once, 0 to run the calls on the shared
+   *     Dispatchers.IO pool with no limit of their own. Never on the caller's thread: method
+   *     implementations may block, e.g. on the fsync of a DurableUserStore, and the caller is a
+   *     thread of the CPU-sized Default dispatcher.
+   * @param maxQueued the number of calls which can wait for a thread
+   */
+  public Bulkhead(String name, int threads, int maxQueued) {
+    this.name = name;
+    if (threads == 0) {
+      this.executor = null;
+      return;
+    }
+    // With no queue, a call is only accepted if a thread is free.
+    final BlockingQueue<Runnable> queue =
+        maxQueued > 0 ? new ArrayBlockingQueue<>(maxQueued) : new SynchronousQueue<>();
+    this.executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            0,
+            TimeUnit.MILLISECONDS,
+            queue,
+            ExecutorMode.namedThreadFactory("bulkhead-" + name + "-"));
+  }
+
+  /**
+   * Runs {@code call} on the bulkhead's threads and suspends the calling coroutine until it
+   * returns. To be called from a method implementation registered with addMethod().
+   *
+   * @throws OverloadedException if the bulkhead is full
+   */
+  public <T> Object call(Supplier<T> call, Continuation<? super T> continuation) {
+    final Executor target =
+        executor != null ? executor : ExecutorsKt.asExecutor(Dispatchers.getIO());
+    final CompletableFuture<T> future;
+    try {
+      future = CompletableFuture.supplyAsync(call, target);
+    } catch (RejectedExecutionException e) {
+      // The queue is full, or the bulkhead is closed.
+      final OverloadedException overloaded = new OverloadedException("too many calls in " + name);
+      final Rejection rejection = continuation.getContext().get(Rejection.KEY);
+      if (rejection != null) {
+        rejection.exception = overloaded;
+      }
+      throw overloaded;
+    }
+    return FutureKt.await(future, continuation);
+  }
+
+  @Override
+  public void close() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+}
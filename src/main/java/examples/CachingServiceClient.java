@@ -0,0 +1,206 @@
+package examples;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import land.soia.service.Method;
+import land.soia.service.ServiceClient;
+import soiagen.service.AddUserRequest;
+import soiagen.service.AddUsersRequest;
+import soiagen.service.GetUserRequest;
+import soiagen.service.GetUserResponse;
+import soiagen.service.Methods;
+import soiagen.user.User;
+
+/**
+ * Wraps a {@link ServiceClient} with a read-through cache of GetUser responses, keyed by user id.
+ *
+ * <p>invokeRemoteBlocking() has the same signature as in ServiceClient. A GetUser call without
+ * custom headers is answered from the cache if it holds a response for the user id which is less
+ * than {@code ttl} old; otherwise the call is sent and the response is cached. A response saying
+ * that the user does not exist is cached too.
+ *
+ * <p>The cache holds up to {@code maxSize} responses and evicts the least recently used ones. It is
+ * split into stripes, each with its own lock and an equal share of the capacity, so that lookups
+ * from many threads do not contend on one lock. There is no frequency-based admission (such as
+ * W-TinyLFU): a scan of many users read once can evict hot users.
+ *
+ * <p>Responses can be stale for up to {@code ttl} if the users are modified by other clients.
+ * AddUser and AddUsers calls made through this client invalidate the users they add. Like {@link
+ * GetUserResponseCache}, a miss reserves its user id before calling the service and only caches the
+ * response if the reservation is still there, so that invalidating one user does not affect the
+ * responses being fetched for others.
+ */
+public final class CachingServiceClient {
+  private final ServiceClient delegate;
+  private final long ttlNanos;
+  private final Stripe[] stripes;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  private static final class Entry {
+    final GetUserResponse response;
+    final long expiresAtNanos;
+
+    Entry(GetUserResponse response, long expiresAtNanos) {
+      this.response = response;
+      this.expiresAtNanos = expiresAtNanos;
+    }
+  }
+
+  /** Marks a user whose response is being fetched. Removed by an invalidation. */
+  private static final class Reservation {}
+
+  /** An LRU map guarded by its own monitor. */
+  private final class Stripe {
+    // Values are entries or reservations, in access order.
+    final LinkedHashMap<Integer, Object> userIdToValue;
+
+    Stripe(int maxSize) {
+      this.userIdToValue =
+          new LinkedHashMap<>(16, 0.75f, /* accessOrder= */ true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Object> eldest) {
+              if (size() <= maxSize) {
+                return false;
+              }
+              evictions.increment();
+              return true;
+            }
+          };
+    }
+  }
+
+  /**
+   * @param maxSize maximum number of cached responses
+   * @param ttl how long a response is served from the cache
+   */
+  public CachingServiceClient(ServiceClient delegate, int maxSize, Duration ttl) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive");
+    }
+    this.delegate = delegate;
+    this.ttlNanos = ttl.toNanos();
+    // Enough stripes to spread the contention, but not so many that each one only holds a handful
+    // of entries and evicts them too early.
+    final int stripeCount =
+        Math.max(1, Math.min(4 * Runtime.getRuntime().availableProcessors(), maxSize / 64));
+    this.stripes = new Stripe[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new Stripe((maxSize + stripeCount - 1) / stripeCount);
+    }
+  }
+
+  /**
+   * Same as ServiceClient.invokeRemoteBlocking(), except that GetUser calls without custom headers
+   * may be answered from the cache.
+   */
+  public <Request, Response> Response invokeRemoteBlocking(
+      Method<Request, Response> method,
+      Request request,
+      Map<String, ? extends List<String>> requestHeaders,
+      Duration timeout) {
+    if (method == Methods.GET_USER && requestHeaders.isEmpty()) {
+      final int userId = ((GetUserRequest) request).userId();
+      @SuppressWarnings("unchecked")
+      final Response response = (Response) getUser(userId, timeout);
+      return response;
+    }
+    final Response response =
+        delegate.invokeRemoteBlocking(method, request, requestHeaders, timeout);
+    // Invalidate after the call: a GetUser sent in the meantime may have seen the old user.
+    if (method == Methods.ADD_USER) {
+      invalidate(((AddUserRequest) request).user().userId());
+    } else if (method == Methods.ADD_USERS) {
+      for (User user : ((AddUsersRequest) request).users()) {
+        invalidate(user.userId());
+      }
+    }
+    return response;
+  }
+
+  private GetUserResponse getUser(int userId, Duration timeout) {
+    final Stripe stripe = stripeOf(userId);
+    final Reservation reservation;
+    synchronized (stripe) {
+      final Object value = stripe.userIdToValue.get(userId);
+      if (value instanceof Entry entry && entry.expiresAtNanos - System.nanoTime() > 0) {
+        hits.increment();
+        return entry.response;
+      }
+      if (value instanceof Reservation current) {
+        // Concurrent misses on the same user share a reservation.
+        reservation = current;
+      } else {
+        // Also replaces an expired entry.
+        reservation = new Reservation();
+        stripe.userIdToValue.put(userId, reservation);
+      }
+    }
+    misses.increment();
+    GetUserResponse response = null;
+    try {
+      response =
+          delegate.invokeRemoteBlocking(
+              Methods.GET_USER,
+              GetUserRequest.builder().setUserId(userId).build(),
+              Map.of(),
+              timeout);
+    } finally {
+      synchronized (stripe) {
+        // Otherwise the user was invalidated, or the response cached by a concurrent miss.
+        if (stripe.userIdToValue.get(userId) == reservation) {
+          if (response != null) {
+            stripe.userIdToValue.put(userId, new Entry(response, System.nanoTime() + ttlNanos));
+          } else {
+            // The call failed: don't leave the reservation behind.
+            stripe.userIdToValue.remove(userId);
+          }
+        }
+      }
+    }
+    return response;
+  }
+
+  /**
+   * Removes the cached response for the user, if any, and prevents the GetUser calls in flight for
+   * the user from caching theirs.
+   */
+  public void invalidate(int userId) {
+    final Stripe stripe = stripeOf(userId);
+    synchronized (stripe) {
+      stripe.userIdToValue.remove(userId);
+    }
+  }
+
+  /** Returns the number of GetUser calls answered from the cache. */
+  public long hitCount() {
+    return hits.sum();
+  }
+
+  /** Returns the number of GetUser calls sent to the service. */
+  public long missCount() {
+    return misses.sum();
+  }
+
+  /** Returns the number of responses evicted to make room for others. */
+  public long evictionCount() {
+    return evictions.sum();
+  }
+
+  /** Returns the fraction of GetUser calls answered from the cache, or 0 if there were none. */
+  public double hitRate() {
+    final long hitCount = hits.sum();
+    final long total = hitCount + misses.sum();
+    return total == 0 ? 0 : (double) hitCount / total;
+  }
+
+  private Stripe stripeOf(int userId) {
+    // Consecutive ids are common: mix the bits so that they spread over the stripes.
+    return stripes[Integer.remainderUnsigned(userId * 0x9E3779B9, stripes.length)];
+  }
+}
@@ -1,14 +1,18 @@
 package examples;
 
-import java.net.http.HttpClient;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import land.soia.service.ServiceClient;
 import soiagen.service.AddUserRequest;
+import soiagen.service.AddUsersRequest;
 import soiagen.service.GetUserRequest;
 import soiagen.service.GetUserResponse;
+import soiagen.service.GetUsersRequest;
+import soiagen.service.GetUsersResponse;
 import soiagen.service.Methods;
 import soiagen.user.Constants;
 import soiagen.user.SubscriptionStatus;
@@ -23,8 +27,9 @@ import soiagen.user.User;
  */
 public class CallService {
   public static void main(String[] args) throws Exception {
+    // The clients created with ServiceClients share one HttpClient and its connections.
     final ServiceClient serviceClient =
-        new ServiceClient("http://localhost:8787/myapi", Map.of(), HttpClient.newHttpClient());
+        ServiceClients.newServiceClient("http://localhost:8787/myapi");
 
     System.out.println();
     System.out.println("About to add 2 users: John Doe and Tarzan");
@@ -65,5 +70,96 @@ public class CallService {
             Duration.ofSeconds(30));
 
     System.out.println("Found user: " + foundUserResponse.user());
+
+    // Same call with the soia binary encoding instead of JSON, which is more compact on the wire.
+    final BinaryServiceClient binaryServiceClient =
+        ServiceClients.newBinaryServiceClient("http://localhost:8787/myapi");
+    final GetUserResponse binaryFoundUserResponse =
+        binaryServiceClient.invokeRemoteBlocking(
+            Methods.GET_USER,
+            GetUserRequest.builder().setUserId(123).build(),
+            Duration.ofSeconds(30));
+
+    System.out.println("Found user (binary): " + binaryFoundUserResponse.user());
+
+    // Batch methods add or look up many users in a single round trip.
+    final List<User> newUsers = new ArrayList<>();
+    for (int userId = 1000; userId < 1100; userId++) {
+      newUsers.add(
+          User.builder()
+              .setName("User " + userId)
+              .setPets(List.of())
+              .setQuote("")
+              .setSubscriptionStatus(SubscriptionStatus.FREE)
+              .setUserId(userId)
+              .build());
+    }
+    serviceClient.invokeRemoteBlocking(
+        Methods.ADD_USERS,
+        AddUsersRequest.builder().setUsers(newUsers).build(),
+        Map.of(),
+        Duration.ofSeconds(30));
+    final GetUsersResponse foundUsersResponse =
+        serviceClient.invokeRemoteBlocking(
+            Methods.GET_USERS,
+            GetUsersRequest.builder().setUserIds(List.of(42, 123, 1000, 1099, 5000)).build(),
+            Map.of(),
+            Duration.ofSeconds(30));
+
+    System.out.println("Found " + foundUsersResponse.users().size() + " users out of 5");
+
+    // Concurrent GetUser calls made through a CoalescingServiceClient are sent as a few GetUsers
+    // calls, without changing the call sites.
+    try (CoalescingServiceClient coalescingClient =
+        new CoalescingServiceClient(serviceClient, Duration.ofMillis(2), 100)) {
+      final List<Thread> threads = new ArrayList<>();
+      for (int i = 0; i < 50; i++) {
+        final int userId = 1000 + i;
+        final Thread thread =
+            new Thread(
+                () ->
+                    coalescingClient.invokeRemoteBlocking(
+                        Methods.GET_USER,
+                        GetUserRequest.builder().setUserId(userId).build(),
+                        Map.of(),
+                        Duration.ofSeconds(30)));
+        thread.start();
+        threads.add(thread);
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+    }
+    System.out.println("Looked up 50 users with coalesced GetUser calls");
+
+    // AsyncServiceClient returns futures: a thousand calls are in flight without a thread each,
+    // on the few threads of the shared HttpClient.
+    final AsyncServiceClient asyncServiceClient =
+        ServiceClients.newAsyncServiceClient("http://localhost:8787/myapi", 256);
+    final List<CompletableFuture<GetUserResponse>> responses = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      responses.add(
+          asyncServiceClient.invokeRemote(
+              Methods.GET_USER,
+              GetUserRequest.builder().setUserId(1000 + i % 100).build(),
+              Map.of(),
+              Duration.ofSeconds(5)));
+    }
+    CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0])).join();
+    System.out.println("Completed " + responses.size() + " async GetUser calls");
+
+    // With a CachingServiceClient, repeated GetUser calls for the same user are served locally.
+    final CachingServiceClient cachingClient =
+        new CachingServiceClient(serviceClient, 10_000, Duration.ofSeconds(10));
+    for (int i = 0; i < 1000; i++) {
+      cachingClient.invokeRemoteBlocking(
+          Methods.GET_USER,
+          GetUserRequest.builder().setUserId(1000 + i % 100).build(),
+          Map.of(),
+          Duration.ofSeconds(30));
+    }
+    System.out.printf(
+        "Cached GetUser calls: %d hits, %d misses%n",
+        cachingClient.hitCount(), cachingClient.missCount());
   }
 }
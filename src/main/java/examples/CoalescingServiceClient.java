@@ -0,0 +1,211 @@
+package examples;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import land.soia.service.Method;
+import land.soia.service.ServiceClient;
+import soiagen.service.GetUserRequest;
+import soiagen.service.GetUserResponse;
+import soiagen.service.GetUsersRequest;
+import soiagen.service.GetUsersResponse;
+import soiagen.service.Methods;
+import soiagen.user.User;
+
+/**
+ * Wraps a {@link ServiceClient} to merge concurrent GetUser calls into GetUsers calls.
+ *
+ * <p>invokeRemoteBlocking() has the same signature as in ServiceClient. A GetUser call without
+ * custom headers does not send a request right away: it joins a batch which is sent as a single
+ * GetUsers call once the batch has been open for {@code window}, or once it holds {@code
+ * maxBatchSize} distinct user ids. Each caller then gets the user it asked for. Concurrent calls
+ * for the same user id share one entry in the batch. All other calls go straight to the wrapped
+ * client.
+ *
+ * <p>The call which opens a batch waits for the window to end, or for the batch to be full, and
+ * then sends the batch from its own thread. The client starts no thread of its own: there are never
+ * more GetUsers calls in flight than threads calling the client, and every batch has at most {@code
+ * maxBatchSize} ids.
+ *
+ * <p>The window adds up to {@code window} of latency to each GetUser call, in exchange for far
+ * fewer requests when many threads look up users at the same time.
+ */
+public final class CoalescingServiceClient implements AutoCloseable {
+  private final ServiceClient delegate;
+  private final long windowNanos;
+  private final int maxBatchSize;
+
+  // Guarded by this. Null if no GetUser call is waiting.
+  private Batch pending;
+  // Guarded by this.
+  private boolean closed;
+
+  /** The GetUser calls merged into one GetUsers call. */
+  private static final class Batch {
+    final Map<Integer, CompletableFuture<GetUserResponse>> userIdToResponse = new HashMap<>();
+    // The longest timeout of the calls in the batch.
+    Duration timeout = Duration.ZERO;
+    // Guarded by the client. Set when the batch takes no more calls.
+    boolean full;
+  }
+
+  /**
+   * @param window how long a batch stays open to more GetUser calls after the first one
+   * @param maxBatchSize the number of distinct user ids which makes a batch be sent right away
+   */
+  public CoalescingServiceClient(ServiceClient delegate, Duration window, int maxBatchSize) {
+    if (maxBatchSize <= 0) {
+      throw new IllegalArgumentException("maxBatchSize must be positive");
+    }
+    this.delegate = delegate;
+    this.windowNanos = window.toNanos();
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  /**
+   * Same as ServiceClient.invokeRemoteBlocking(), except that GetUser calls without custom headers
+   * may be sent as part of a GetUsers call.
+   *
+   * @throws IllegalStateException if the client is closed
+   */
+  public <Request, Response> Response invokeRemoteBlocking(
+      Method<Request, Response> method,
+      Request request,
+      Map<String, ? extends List<String>> requestHeaders,
+      Duration timeout) {
+    // Headers are per request: calls with custom headers can't share a request.
+    if (method != Methods.GET_USER || !requestHeaders.isEmpty()) {
+      return delegate.invokeRemoteBlocking(method, request, requestHeaders, timeout);
+    }
+    final int userId = ((GetUserRequest) request).userId();
+    final Batch batch;
+    final boolean opener;
+    final CompletableFuture<GetUserResponse> response;
+    synchronized (this) {
+      if (closed) {
+        throw new IllegalStateException("client closed");
+      }
+      opener = pending == null;
+      batch = opener ? new Batch() : pending;
+      response = batch.userIdToResponse.computeIfAbsent(userId, id -> new CompletableFuture<>());
+      if (timeout.compareTo(batch.timeout) > 0) {
+        batch.timeout = timeout;
+      }
+      if (batch.userIdToResponse.size() >= maxBatchSize) {
+        // Wakes up the call which opened the batch, so that it sends it right away.
+        batch.full = true;
+        pending = null;
+        notifyAll();
+      } else {
+        pending = batch;
+      }
+    }
+    if (opener && awaitWindow(batch)) {
+      send(batch);
+    }
+    @SuppressWarnings("unchecked")
+    final Response result = (Response) await(response, timeout);
+    return result;
+  }
+
+  /**
+   * Waits until {@code batch} is full or its window ends, then closes it to more calls. Returns
+   * false if the client was closed in the meantime, which has failed the calls in the batch.
+   */
+  private synchronized boolean awaitWindow(Batch batch) {
+    final long deadlineNanos = System.nanoTime() + windowNanos;
+    long remainingNanos = windowNanos;
+    while (!batch.full && !closed && remainingNanos > 0) {
+      try {
+        TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+      } catch (InterruptedException e) {
+        // Send the batch now: the other calls in it must not wait for this one.
+        Thread.currentThread().interrupt();
+        break;
+      }
+      remainingNanos = deadlineNanos - System.nanoTime();
+    }
+    if (pending == batch) {
+      pending = null;
+    }
+    batch.full = true;
+    return !closed;
+  }
+
+  private void send(Batch batch) {
+    final Map<Integer, CompletableFuture<GetUserResponse>> userIdToResponse =
+        batch.userIdToResponse;
+    final List<Integer> userIds = new ArrayList<>(userIdToResponse.keySet());
+    try {
+      final GetUsersResponse response =
+          delegate.invokeRemoteBlocking(
+              Methods.GET_USERS,
+              GetUsersRequest.builder().setUserIds(userIds).build(),
+              Map.of(),
+              batch.timeout);
+      userIdToResponse.forEach(
+          (userId, future) -> {
+            final User user = response.users().findByKey(userId);
+            future.complete(
+                GetUserResponse.partialBuilder().setUser(Optional.ofNullable(user)).build());
+          });
+    } catch (Throwable e) {
+      // Kotlin code can throw checked exceptions, e.g. an IOException from the transport, which
+      // must not leave the callers waiting until their timeout.
+      userIdToResponse.values().forEach(future -> future.completeExceptionally(e));
+      if (e instanceof Error error) {
+        throw error;
+      }
+    }
+  }
+
+  private static <T> T await(CompletableFuture<T> future, Duration timeout) {
+    try {
+      return future.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      if (e.getCause() instanceof IOException cause) {
+        throw new UncheckedIOException(cause);
+      }
+      throw new IllegalStateException(e.getCause());
+    } catch (TimeoutException e) {
+      throw new UncheckedIOException(
+          new HttpTimeoutException("GetUser timed out after " + timeout));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while waiting for GetUser", e);
+    }
+  }
+
+  /**
+   * Fails the calls waiting for a batch which has not been sent yet. Later calls fail with an
+   * IllegalStateException.
+   */
+  @Override
+  public void close() {
+    final Batch batch;
+    synchronized (this) {
+      closed = true;
+      batch = pending;
+      pending = null;
+      // Wakes up the call which opened the batch, which then does not send it.
+      notifyAll();
+    }
+    if (batch != null) {
+      final IllegalStateException e = new IllegalStateException("client closed");
+      batch.userIdToResponse.values().forEach(future -> future.completeExceptionally(e));
+    }
+  }
+}
@@ -0,0 +1,371 @@
+package examples;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import soiagen.user.User;
+
+/**
+ * A {@link UserStore} which survives restarts: every put() is written to a {@link UserLog} and only
+ * returns once the user is durable.
+ *
+ * <p>To bound the time it takes to replay the log on startup, {@link #snapshot} periodically
+ * replaces the log with a snapshot of all the users (see {@link UserSnapshots}). The latest
+ * snapshot is memory-mapped rather than loaded: a user from the snapshot is only decoded when it is
+ * looked up, and the most recently decoded users are kept in a bounded cache. Users added since the
+ * snapshot are kept in memory and take precedence over the snapshot. Once a new snapshot is
+ * durable, it replaces the previous one and the users it covers are dropped from memory, so memory
+ * only holds the users added since the last snapshot.
+ */
+public final class DurableUserStore implements UserStore, Closeable {
+  private final Path directory;
+  private final Supplier<UserStore> newMemory;
+  private final UserLog log;
+  private final DecodedUsers decodedUsers;
+  private final AccessLog accessLog;
+  private final ScheduledExecutorService snapshotScheduler =
+      Executors.newSingleThreadScheduledExecutor(
+          ExecutorMode.namedThreadFactory("user-snapshotter-"));
+  // Users are looked up in memory, then in previousMemory, then in the snapshot. Writes happen in
+  // the reverse order, so that a reader never misses a user which is moving between two of them.
+  private volatile UserStore memory;
+  // While a snapshot is being written, the users added before it started. Null otherwise.
+  private volatile UserStore previousMemory;
+  // Null if there is no snapshot.
+  private volatile MappedUserSnapshot snapshot;
+  private long lastSnapshotSequence;
+
+  private DurableUserStore(
+      Path directory,
+      Supplier<UserStore> newMemory,
+      UserStore memory,
+      MappedUserSnapshot snapshot,
+      int decodedCacheSize,
+      AccessLog accessLog)
+      throws IOException {
+    this.directory = directory;
+    this.newMemory = newMemory;
+    this.memory = memory;
+    this.snapshot = snapshot;
+    this.decodedUsers = new DecodedUsers(decodedCacheSize);
+    this.accessLog = accessLog;
+    this.lastSnapshotSequence = snapshot != null ? snapshot.sequence() : 0;
+    // The log writes to memory once a user is durable, so a user is never visible to readers
+    // before it would survive a crash.
+    this.log =
+        new UserLog(directory, lastSnapshotSequence, user -> this.memory.put(user), accessLog);
+  }
+
+  /**
+   * Maps the latest snapshot in {@code directory}, loads the users logged since then into memory
+   * and opens the log for writing. The directory is created if it does not exist.
+   *
+   * @param newMemory creates the store holding the users added since the last snapshot; called
+   *     again after every snapshot
+   * @param decodedCacheSize maximum number of users decoded from the snapshot kept in memory, 0 to
+   *     decode a user on every lookup
+   * @param accessLog where the errors of the background threads and of the replay are reported
+   */
+  public static DurableUserStore open(
+      Path directory, Supplier<UserStore> newMemory, int decodedCacheSize, AccessLog accessLog)
+      throws IOException {
+    final MappedUserSnapshot snapshot = UserSnapshots.openLatest(directory, accessLog);
+    final UserStore memory = newMemory.get();
+    UserLog.replay(directory, snapshot != null ? snapshot.sequence() : 0, memory::put, accessLog);
+    return new DurableUserStore(
+        directory, newMemory, memory, snapshot, decodedCacheSize, accessLog);
+  }
+
+  @Override
+  public User get(int userId) {
+    final User user = memory.get(userId);
+    if (user != null) {
+      return user;
+    }
+    final UserStore previousMemory = this.previousMemory;
+    if (previousMemory != null) {
+      final User previousUser = previousMemory.get(userId);
+      if (previousUser != null) {
+        return previousUser;
+      }
+    }
+    final User decoded = decodedUsers.get(userId);
+    if (decoded != null) {
+      return decoded;
+    }
+    final MappedUserSnapshot snapshot = this.snapshot;
+    if (snapshot == null) {
+      return null;
+    }
+    final User snapshotUser = snapshot.get(userId);
+    if (snapshotUser != null) {
+      decodedUsers.put(userId, snapshotUser);
+    }
+    return snapshotUser;
+  }
+
+  /**
+   * Blocks until the user has been written to the log.
+   *
+   * @throws java.io.UncheckedIOException if the log could not be written
+   */
+  @Override
+  public void put(User user) {
+    join(log.append(user));
+  }
+
+  /**
+   * Blocks until all the users have been written to the log. The users are written as a single log
+   * record with one fsync, so a batch reported as failed was not persisted, even in part.
+   *
+   * @throws java.io.UncheckedIOException if the log could not be written
+   */
+  @Override
+  public void putAll(Collection<User> users) {
+    join(log.appendAll(users));
+  }
+
+  @Override
+  public int size() {
+    final UserStore memory = this.memory;
+    final UserStore previousMemory = this.previousMemory;
+    final MappedUserSnapshot snapshot = this.snapshot;
+    final int[] result = {snapshot != null ? snapshot.size() : 0};
+    final Consumer<User> count =
+        user -> {
+          if (snapshot == null || !snapshot.contains(user.userId())) {
+            result[0]++;
+          }
+        };
+    if (previousMemory != null) {
+      previousMemory.forEach(count);
+      memory.forEach(
+          user -> {
+            if (previousMemory.get(user.userId()) == null) {
+              count.accept(user);
+            }
+          });
+    } else {
+      memory.forEach(count);
+    }
+    return result[0];
+  }
+
+  @Override
+  public void forEach(Consumer<User> action) {
+    final UserStore memory = this.memory;
+    final UserStore previousMemory = this.previousMemory;
+    final MappedUserSnapshot snapshot = this.snapshot;
+    memory.forEach(action);
+    if (previousMemory != null) {
+      previousMemory.forEach(
+          user -> {
+            if (memory.get(user.userId()) == null) {
+              action.accept(user);
+            }
+          });
+    }
+    if (snapshot != null) {
+      snapshot.forEach(
+          userId ->
+              memory.get(userId) == null
+                  && (previousMemory == null || previousMemory.get(userId) == null),
+          action);
+    }
+  }
+
+  /**
+   * Writes a snapshot of all the users and deletes the log segments it covers, then maps the new
+   * snapshot and drops from memory the users it covers. Does nothing if no user was added since
+   * the last snapshot.
+   */
+  public synchronized void snapshot() throws IOException {
+    // From now on, durable users go to a new generation. After a failed snapshot, previousMemory
+    // still holds the users which that snapshot was to cover.
+    final UserStore current = memory;
+    previousMemory = previousMemory == null ? current : new Layered(current, previousMemory);
+    memory = newMemory.get();
+    // The log writer thread processes the rotation once every user appended before it has been
+    // passed to onDurable: after that, nothing is added to previousMemory.
+    final long sequence = join(log.rotate());
+    if (sequence != lastSnapshotSequence) {
+      // The users added since the rotation are not covered by the snapshot, but writing them is
+      // harmless: replaying the following segments puts them again. The users of the current
+      // snapshot are copied without being decoded.
+      UserSnapshots.write(directory, sequence, new Layered(memory, previousMemory), snapshot);
+      final MappedUserSnapshot previousSnapshot = snapshot;
+      snapshot = UserSnapshots.openLatest(directory, accessLog);
+      lastSnapshotSequence = sequence;
+      // A user decoded from the previous snapshot may have been replaced in previousMemory.
+      decodedUsers.clear();
+      if (previousSnapshot != null) {
+        previousSnapshot.close();
+      }
+    }
+    // Otherwise nothing was appended since the last snapshot, which covers every user in
+    // previousMemory.
+    previousMemory = null;
+  }
+
+  /** Calls {@link #snapshot} every {@code interval} on a background thread. */
+  public void scheduleSnapshots(Duration interval) {
+    snapshotScheduler.scheduleWithFixedDelay(
+        () -> {
+          try {
+            snapshot();
+          } catch (IOException | RuntimeException e) {
+            accessLog.error("Error writing user snapshot: " + e.getMessage());
+          }
+        },
+        interval.toMillis(),
+        interval.toMillis(),
+        TimeUnit.MILLISECONDS);
+  }
+
+  /** Stops the snapshots, waits for the pending writes to complete and closes the log. */
+  @Override
+  public void close() throws IOException {
+    snapshotScheduler.shutdownNow();
+    log.close();
+    final MappedUserSnapshot snapshot = this.snapshot;
+    if (snapshot != null) {
+      snapshot.close();
+    }
+  }
+
+  /** A read-only view of {@code upper}, with {@code lower} for the users not in {@code upper}. */
+  private static final class Layered implements UserStore {
+    private final UserStore upper;
+    private final UserStore lower;
+
+    Layered(UserStore upper, UserStore lower) {
+      this.upper = upper;
+      this.lower = lower;
+    }
+
+    @Override
+    public User get(int userId) {
+      final User user = upper.get(userId);
+      return user != null ? user : lower.get(userId);
+    }
+
+    @Override
+    public void put(User user) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int size() {
+      final int[] result = {upper.size()};
+      lower.forEach(
+          user -> {
+            if (upper.get(user.userId()) == null) {
+              result[0]++;
+            }
+          });
+      return result[0];
+    }
+
+    @Override
+    public void forEach(Consumer<User> action) {
+      upper.forEach(action);
+      lower.forEach(
+          user -> {
+            if (upper.get(user.userId()) == null) {
+              action.accept(user);
+            }
+          });
+    }
+  }
+
+  /**
+   * Users decoded from the snapshot, split into independently locked stripes like {@link
+   * GetUserResponseCache}, each evicting its least recently used user when full.
+   */
+  private static final class DecodedUsers {
+    private final Stripe[] stripes;
+    private final int stripeShift;
+
+    DecodedUsers(int maxSize) {
+      final int maxStripes = Math.min(4 * Runtime.getRuntime().availableProcessors(), maxSize);
+      final int stripeBits = 31 - Integer.numberOfLeadingZeros(Math.max(maxStripes, 1));
+      this.stripes = new Stripe[maxSize == 0 ? 0 : 1 << stripeBits];
+      for (int i = 0; i < stripes.length; i++) {
+        stripes[i] = new Stripe(maxSize / stripes.length + (i < maxSize % stripes.length ? 1 : 0));
+      }
+      this.stripeShift = 32 - stripeBits;
+    }
+
+    User get(int userId) {
+      if (stripes.length == 0) {
+        return null;
+      }
+      final Stripe stripe = stripeFor(userId);
+      synchronized (stripe) {
+        return stripe.userIdToUser.get(userId);
+      }
+    }
+
+    void put(int userId, User user) {
+      if (stripes.length == 0) {
+        return;
+      }
+      final Stripe stripe = stripeFor(userId);
+      synchronized (stripe) {
+        stripe.userIdToUser.put(userId, user);
+      }
+    }
+
+    void clear() {
+      for (Stripe stripe : stripes) {
+        synchronized (stripe) {
+          stripe.userIdToUser.clear();
+        }
+      }
+    }
+
+    private Stripe stripeFor(int userId) {
+      if (stripes.length == 1) {
+        return stripes[0];
+      }
+      return stripes[(userId * 0x9E3779B9) >>> stripeShift];
+    }
+
+    private static final class Stripe {
+      // In access order.
+      final Map<Integer, User> userIdToUser;
+
+      Stripe(int capacity) {
+        this.userIdToUser =
+            new LinkedHashMap<>(16, 0.75f, true) {
+              @Override
+              protected boolean removeEldestEntry(Map.Entry<Integer, User> eldest) {
+                return size() > capacity;
+              }
+            };
+      }
+    }
+  }
+
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package examples;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The executor on which the HTTP server runs its exchanges. Selected at startup with {@code
+ * --executor=<mode>}.
+ */
+public enum ExecutorMode {
+  /**
+   * The HttpServer's built-in executor: every exchange runs on the single dispatcher thread, so
+   * concurrent requests are serialized.
+   */
+  DEFAULT,
+
+  /** A fixed pool of platform threads. */
+  FIXED,
+
+  /** A work-stealing fork-join pool. */
+  WORK_STEALING,
+
+  /** One new virtual thread per exchange. Requires a Java 21 runtime. */
+  VIRTUAL;
+
+  /**
+   * Creates the executor for this mode, or returns null for {@link #DEFAULT}, which is what
+   * HttpServer.setExecutor() expects for its built-in executor.
+   *
+   * @param threads the pool size for {@link #FIXED} and the parallelism for {@link
+   *     #WORK_STEALING}; ignored by the other modes
+   */
+  public ExecutorService newExecutor(int threads) {
+    switch (this) {
+      case DEFAULT:
+        return null;
+      case FIXED:
+        return Executors.newFixedThreadPool(threads, namedThreadFactory("myapi-worker-"));
+      case WORK_STEALING:
+        return Executors.newWorkStealingPool(threads);
+      case VIRTUAL:
+        return newVirtualThreadPerTaskExecutor();
+      default:
+        throw new AssertionError("Unreachable");
+    }
+  }
+
+  /** Parses the value of the {@code --executor} option, e.g. "work-stealing". */
+  public static ExecutorMode parse(String value) {
+    for (ExecutorMode mode : values()) {
+      if (mode.optionValue().equals(value)) {
+        return mode;
+      }
+    }
+    throw new IllegalArgumentException("unknown executor mode: " + value);
+  }
+
+  String optionValue() {
+    return name().toLowerCase().replace('_', '-');
+  }
+
+  // Looked up reflectively so that the project still compiles with the Java 17 toolchain.
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalStateException(
+          "virtual threads require Java 21 or later, running on " + Runtime.version());
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static ThreadFactory namedThreadFactory(String prefix) {
+    final AtomicInteger counter = new AtomicInteger();
+    return runnable -> {
+      final Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
@@ -0,0 +1,304 @@
+package examples;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import land.soia.service.Method;
+import soiagen.service.GetUserRequest;
+import soiagen.service.GetUserResponse;
+import soiagen.service.Methods;
+
+/**
+ * Encoded GetUser responses, keyed by user id, so that {@link ApiHandler} can answer GetUser for
+ * a hot user by copying bytes, without calling the service or serializing anything.
+ *
+ * <p>Only requests in the exact form "GetUser:number::json" are served from the cache: the dense
+ * JSON produced by {@link BinaryWireFormat} and by the soia clients. Responses are stored as dense
+ * JSON encoded in UTF-8; the binary encoding of a response is computed the first time it is asked
+ * for and then kept next to the JSON.
+ *
+ * <p>Each entry has an ETag derived from a hash of its bytes, with a different ETag for each
+ * encoding, so that clients polling a user can send If-None-Match and get a 304 response while the
+ * user is unchanged. Compressed versions of the response are also kept once computed, so a hot user
+ * is never compressed twice.
+ *
+ * <p>The cache is split into independently locked stripes, like {@link StripedUserStore}, each
+ * evicting its least recently used entry when a new user is inserted into it while full.
+ *
+ * <p>{@link #invalidate} must be called after a user is modified. To make sure that a response
+ * computed before the modification is not cached after it, callers take a {@link Reservation} for
+ * the user with {@link #reserve} before calling the service, and {@link #put} ignores the response
+ * if the user was invalidated since. Invalidating a user does not affect the other users. A caller
+ * which ends up not calling put(), e.g. because the call failed, gives the reservation back with
+ * {@link #release}.
+ */
+public final class GetUserResponseCache {
+  private static final Method<GetUserRequest, GetUserResponse> METHOD = Methods.GET_USER;
+
+  private final int maxSize;
+  private final String requestPrefix;
+  private final Stripe[] stripes;
+  private final int stripeShift;
+
+  /**
+   * Marks a user whose response is being computed. Stored in place of an entry until {@link #put}
+   * replaces it, or {@link #invalidate} or {@link #release} removes it, which makes the put a
+   * no-op.
+   */
+  public static final class Reservation {
+    private Reservation() {}
+  }
+
+  /** The encoded response of one GetUser call. */
+  public static final class Entry {
+    private final String contentType;
+    private final byte[] json;
+    private final String hash;
+    // Computed on first use. Racing threads compute the same bytes.
+    private volatile byte[] binary;
+    // Indexed by 2 * compression.ordinal() + (binary ? 1 : 0).
+    private final AtomicReferenceArray<byte[]> compressed =
+        new AtomicReferenceArray<>(2 * HttpCompression.values().length);
+
+    private Entry(String contentType, byte[] json) {
+      this.contentType = contentType;
+      this.json = json;
+      // The binary encoding is a function of the JSON, so one hash covers both.
+      this.hash = Long.toHexString(hash(json));
+    }
+
+    /**
+     * The ETag of the JSON or binary response, compressed with {@code compression} unless it is
+     * null. Each representation has its own ETag.
+     */
+    public String etag(boolean binary, HttpCompression compression) {
+      final StringBuilder result = new StringBuilder().append('"').append(hash);
+      if (binary) {
+        result.append("-b");
+      }
+      if (compression != null) {
+        result.append('-').append(compression.token());
+      }
+      return result.append('"').toString();
+    }
+
+    /** The length of the uncompressed JSON or binary response. */
+    public int length(boolean binary) {
+      return binary ? binary().length : json.length;
+    }
+
+    /** The Content-Type of the JSON response. */
+    public String contentType() {
+      return contentType;
+    }
+
+    /** The JSON response encoded in UTF-8. Must not be modified. */
+    public byte[] json() {
+      return json;
+    }
+
+    /** The response in the soia binary encoding. Must not be modified. */
+    public byte[] binary() {
+      byte[] result = binary;
+      if (result == null) {
+        result =
+            BinaryWireFormat.toBinaryResponse(METHOD, new String(json, StandardCharsets.UTF_8));
+        binary = result;
+      }
+      return result;
+    }
+
+    /** The JSON or binary response, compressed. Must not be modified. */
+    public byte[] compressed(boolean binary, HttpCompression compression) {
+      final int index = 2 * compression.ordinal() + (binary ? 1 : 0);
+      byte[] result = compressed.get(index);
+      if (result == null) {
+        result = compression.compress(binary ? binary() : json);
+        compressed.set(index, result);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Returns true if {@code ifNoneMatch}, the value of an If-None-Match header, matches {@code
+   * etag}.
+   */
+  public static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      // If-None-Match uses weak comparison.
+      if (candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+      if (candidate.equals("*") || candidate.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** 64-bit FNV-1a. Cheap, and collisions between two versions of a user are very unlikely. */
+  private static long hash(byte[] bytes) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : bytes) {
+      hash ^= b & 0xFF;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /**
+   * @param maxSize the maximum number of cached responses and reservations; 0 disables the cache
+   */
+  public GetUserResponseCache(int maxSize) {
+    this.maxSize = maxSize;
+    this.requestPrefix = BinaryWireFormat.jsonRequestPrefix(METHOD);
+    // A number of stripes proportional to the number of cores, rounded down to a power of two, but
+    // no more than maxSize so that every stripe holds at least one entry.
+    final int maxStripes = Math.min(4 * Runtime.getRuntime().availableProcessors(), maxSize);
+    final int stripeBits = 31 - Integer.numberOfLeadingZeros(Math.max(maxStripes, 1));
+    this.stripes = new Stripe[1 << stripeBits];
+    for (int i = 0; i < stripes.length; i++) {
+      // Spread maxSize exactly: the first stripes take the remainder.
+      stripes[i] = new Stripe(maxSize / stripes.length + (i < maxSize % stripes.length ? 1 : 0));
+    }
+    // A shift of 32 would be a no-op in Java, so a single stripe is special-cased in stripeFor().
+    this.stripeShift = 32 - stripeBits;
+  }
+
+  /**
+   * Returns the user id of a JSON request body if it is a GetUser request which can be served from
+   * the cache, or null. Works even if the cache is disabled: the response still gets an ETag.
+   */
+  public Integer userIdOf(String requestBody) {
+    if (!requestBody.startsWith(requestPrefix)) {
+      return null;
+    }
+    try {
+      return METHOD
+          .getRequestSerializer()
+          .fromJsonCode(requestBody.substring(requestPrefix.length()))
+          .userId();
+    } catch (RuntimeException e) {
+      // Let the service report the error.
+      return null;
+    }
+  }
+
+  /** Encodes the JSON response of a GetUser call without caching it. */
+  public static Entry encode(String contentType, String json) {
+    return new Entry(contentType, json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** Returns the cached response for the user, or null. */
+  public Entry get(int userId) {
+    if (maxSize == 0) {
+      return null;
+    }
+    final Stripe stripe = stripeFor(userId);
+    synchronized (stripe) {
+      return stripe.userIdToValue.get(userId) instanceof Entry entry ? entry : null;
+    }
+  }
+
+  /**
+   * Returns the reservation to pass to {@link #put}, taken before the service is called. Null if
+   * the cache is disabled. Concurrent misses on the same user share a reservation.
+   */
+  public Reservation reserve(int userId) {
+    if (maxSize == 0) {
+      return null;
+    }
+    final Stripe stripe = stripeFor(userId);
+    synchronized (stripe) {
+      final Object current = stripe.userIdToValue.get(userId);
+      if (current instanceof Reservation reservation) {
+        return reservation;
+      }
+      final Reservation reservation = new Reservation();
+      if (current == null) {
+        stripe.userIdToValue.put(userId, reservation);
+      }
+      // Otherwise a response was cached since the caller's get(): the reservation matches
+      // nothing, and the put is a no-op.
+      return reservation;
+    }
+  }
+
+  /**
+   * Caches the successful JSON response of a GetUser call, unless the user was invalidated since
+   * {@code reservation} was taken. Returns the encoded response either way.
+   */
+  public Entry put(int userId, Reservation reservation, String contentType, String json) {
+    final Entry entry = encode(contentType, json);
+    if (reservation == null) {
+      return entry;
+    }
+    final Stripe stripe = stripeFor(userId);
+    synchronized (stripe) {
+      // Replaces the reservation, so never evicts anything.
+      if (stripe.userIdToValue.get(userId) == reservation) {
+        stripe.userIdToValue.put(userId, entry);
+      }
+    }
+    return entry;
+  }
+
+  /**
+   * Removes the reservation for the user if it is still {@code reservation}, so that it does not
+   * take the place of an entry until it is evicted. To be called instead of {@link #put} when the
+   * call fails or its response is not cached. The concurrent misses which share the reservation
+   * don't cache their responses either.
+   */
+  public void release(int userId, Reservation reservation) {
+    if (reservation == null) {
+      return;
+    }
+    final Stripe stripe = stripeFor(userId);
+    synchronized (stripe) {
+      if (stripe.userIdToValue.get(userId) == reservation) {
+        stripe.userIdToValue.remove(userId);
+      }
+    }
+  }
+
+  /** Removes the response for the user, and prevents in-flight GetUser calls from caching one. */
+  public void invalidate(int userId) {
+    if (maxSize == 0) {
+      return;
+    }
+    final Stripe stripe = stripeFor(userId);
+    synchronized (stripe) {
+      stripe.userIdToValue.remove(userId);
+    }
+  }
+
+  private Stripe stripeFor(int userId) {
+    if (stripes.length == 1) {
+      return stripes[0];
+    }
+    // User ids are often sequential: spread them with a multiplicative hash and keep the high bits.
+    return stripes[(userId * 0x9E3779B9) >>> stripeShift];
+  }
+
+  private static final class Stripe {
+    // Values are entries or reservations, in access order.
+    final Map<Integer, Object> userIdToValue;
+
+    Stripe(int capacity) {
+      this.userIdToValue =
+          new LinkedHashMap<>(16, 0.75f, true) {
+            // Only called after a new key is inserted.
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Object> eldest) {
+              return size() > capacity;
+            }
+          };
+    }
+  }
+}
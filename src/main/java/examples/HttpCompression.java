@@ -0,0 +1,151 @@
+package examples;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The content codings supported by {@link ApiHandler}: gzip and deflate, for both responses
+ * (negotiated with the Accept-Encoding header) and requests (declared with Content-Encoding).
+ */
+public enum HttpCompression {
+  GZIP("gzip"),
+  /** The zlib format, as specified by HTTP, not raw deflate. */
+  DEFLATE("deflate");
+
+  private final String token;
+
+  HttpCompression(String token) {
+    this.token = token;
+  }
+
+  /** The value of the Content-Encoding header. */
+  public String token() {
+    return token;
+  }
+
+  /**
+   * Returns the coding to use for a response given the value of the Accept-Encoding header, or
+   * null if the response must not be compressed. Gzip wins ties.
+   */
+  public static HttpCompression negotiate(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return null;
+    }
+    double gzipQuality = -1;
+    double deflateQuality = -1;
+    double wildcardQuality = -1;
+    for (String element : acceptEncoding.split(",")) {
+      final int semicolonIndex = element.indexOf(';');
+      final String coding =
+          (semicolonIndex < 0 ? element : element.substring(0, semicolonIndex)).trim();
+      final double quality =
+          semicolonIndex < 0 ? 1 : parseQuality(element.substring(semicolonIndex));
+      if (coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip")) {
+        gzipQuality = quality;
+      } else if (coding.equalsIgnoreCase("deflate")) {
+        deflateQuality = quality;
+      } else if (coding.equals("*")) {
+        wildcardQuality = quality;
+      }
+    }
+    // A coding which is not listed gets the quality of the wildcard, if any.
+    if (gzipQuality < 0) {
+      gzipQuality = wildcardQuality;
+    }
+    if (deflateQuality < 0) {
+      deflateQuality = wildcardQuality;
+    }
+    if (gzipQuality <= 0 && deflateQuality <= 0) {
+      return null;
+    }
+    return gzipQuality >= deflateQuality ? GZIP : DEFLATE;
+  }
+
+  /** Parses the parameters of an Accept-Encoding element, e.g. ";q=0.5". */
+  private static double parseQuality(String parameters) {
+    for (String parameter : parameters.split(";")) {
+      parameter = parameter.trim();
+      if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+        try {
+          return Double.parseDouble(parameter.substring(2).trim());
+        } catch (NumberFormatException e) {
+          return 0;
+        }
+      }
+    }
+    return 1;
+  }
+
+  /**
+   * Returns the coding of a request body given the value of the Content-Encoding header, or null
+   * if there is no header or it is "identity".
+   *
+   * @throws IllegalArgumentException if the coding is not supported
+   */
+  public static HttpCompression ofContentEncoding(String contentEncoding) {
+    if (contentEncoding == null) {
+      return null;
+    }
+    final String coding = contentEncoding.trim();
+    if (coding.isEmpty() || coding.equalsIgnoreCase("identity")) {
+      return null;
+    } else if (coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip")) {
+      return GZIP;
+    } else if (coding.equalsIgnoreCase("deflate")) {
+      return DEFLATE;
+    }
+    throw new IllegalArgumentException("unsupported Content-Encoding: " + contentEncoding);
+  }
+
+  /** Returns a stream which decompresses {@code in}. */
+  public InputStream decompress(InputStream in) throws IOException {
+    return this == GZIP ? new GZIPInputStream(in) : new InflaterInputStream(in);
+  }
+
+  /** Returns a stream which compresses into {@code out}. Closing it closes {@code out}. */
+  public DeflaterOutputStream compress(OutputStream out) throws IOException {
+    return this == GZIP ? new GZIPOutputStream(out, 8192) : new DeflaterOutputStream(out);
+  }
+
+  public byte[] compress(byte[] bytes) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+    try (DeflaterOutputStream compressed = compress(out)) {
+      compressed.write(bytes);
+    } catch (IOException e) {
+      throw new AssertionError("Unreachable: ByteArrayOutputStream does not throw", e);
+    }
+    return out.toByteArray();
+  }
+
+  /** An output stream which counts the bytes written to it, e.g. by a compressing stream. */
+  static final class CountingOutputStream extends FilterOutputStream {
+    private long count;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+
+    long count() {
+      return count;
+    }
+  }
+}
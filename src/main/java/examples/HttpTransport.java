@@ -0,0 +1,39 @@
+package examples;
+
+import com.sun.net.httpserver.HttpHandler;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+
+/**
+ * An HTTP server which dispatches requests to {@link HttpHandler}s, so that the same handlers, e.g.
+ * {@link ApiHandler}, can run on different engines. See {@link TransportMode}.
+ */
+public interface HttpTransport {
+  /**
+   * Routes the requests whose path starts with {@code path} to {@code handler}. The longest
+   * matching path wins. Must be called before {@link #start}.
+   */
+  void createContext(String path, HttpHandler handler);
+
+  /**
+   * Sets the executor on which the handlers run, or null for the engine's default. Must be called
+   * before {@link #start}.
+   */
+  void setExecutor(Executor executor);
+
+  /**
+   * Sets the maximum size of a request body, for engines which read bodies into memory before
+   * calling the handlers: larger requests get a 413 response without reaching the handlers.
+   * Engines which stream bodies to the handlers leave the limit to them. Must be called before
+   * {@link #start}.
+   */
+  void setMaxRequestBodySize(int bytes);
+
+  void start();
+
+  /** Stops accepting requests and closes the connections. Can be called before {@link #start}. */
+  void stop();
+
+  /** The address the server is bound to, with the actual port if it was bound to port 0. */
+  InetSocketAddress getAddress();
+}
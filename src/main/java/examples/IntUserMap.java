@@ -0,0 +1,131 @@
+package examples;
+
+import java.util.function.Consumer;
+import soiagen.user.User;
+
+/**
+ * A map from user id to user, specialized for int keys.
+ *
+ * <p>Entries are stored in two flat parallel arrays with open addressing and linear probing: there
+ * is no boxing of the keys and no per-entry node object, so an entry costs about 11 bytes of index
+ * instead of about 50 bytes for a {@code HashMap<Integer, User>}. A slot is empty iff its value is
+ * null, which leaves the whole int range available for keys.
+ *
+ * <p>Not thread-safe. However, {@link #get} never fails and always terminates, even when it races
+ * with a {@link #put}, which allows callers to read optimistically and validate afterwards (see
+ * {@link StripedUserStore}).
+ */
+public final class IntUserMap {
+  private static final int MIN_CAPACITY = 16;
+
+  /** Keys and values are replaced together on resize, so a reader never sees mismatched arrays. */
+  private static final class Table {
+    final int[] keys;
+    final User[] values;
+
+    Table(int capacity) {
+      this.keys = new int[capacity];
+      this.values = new User[capacity];
+    }
+  }
+
+  private Table table = new Table(MIN_CAPACITY);
+  private int size;
+
+  public User get(int userId) {
+    final Table table = this.table;
+    final int mask = table.keys.length - 1;
+    int index = hash(userId) & mask;
+    // Bounded by the capacity in case the table is concurrently modified.
+    for (int i = 0; i <= mask; i++) {
+      final User value = table.values[index];
+      if (value == null) {
+        return null;
+      }
+      if (table.keys[index] == userId) {
+        return value;
+      }
+      index = (index + 1) & mask;
+    }
+    return null;
+  }
+
+  /** Adds the user, or replaces the user with the same id. Returns the replaced user, if any. */
+  public User put(User user) {
+    // Grow when the table is 3/4 full, so probe sequences stay short.
+    if ((size + 1) * 4L > table.keys.length * 3L) {
+      resize(table.keys.length * 2);
+    }
+    final User previous = insert(table, user.userId(), user);
+    if (previous == null) {
+      size++;
+    }
+    return previous;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** Returns a new array containing all the users in the map, in no particular order. */
+  public User[] toArray() {
+    final User[] result = new User[size];
+    int index = 0;
+    for (User value : table.values) {
+      if (value != null) {
+        result[index++] = value;
+      }
+    }
+    return result;
+  }
+
+  public void forEach(Consumer<User> action) {
+    for (User value : table.values) {
+      if (value != null) {
+        action.accept(value);
+      }
+    }
+  }
+
+  private void resize(int newCapacity) {
+    final Table oldTable = table;
+    final Table newTable = new Table(newCapacity);
+    for (int i = 0; i < oldTable.values.length; i++) {
+      final User value = oldTable.values[i];
+      if (value != null) {
+        insert(newTable, oldTable.keys[i], value);
+      }
+    }
+    table = newTable;
+  }
+
+  private static User insert(Table table, int userId, User user) {
+    final int mask = table.keys.length - 1;
+    int index = hash(userId) & mask;
+    while (true) {
+      final User value = table.values[index];
+      if (value == null) {
+        table.keys[index] = userId;
+        table.values[index] = user;
+        return null;
+      }
+      if (table.keys[index] == userId) {
+        table.values[index] = user;
+        return value;
+      }
+      index = (index + 1) & mask;
+    }
+  }
+
+  // Finalizer of MurmurHash3: user ids are often sequential, which would otherwise form long runs
+  // of occupied slots with linear probing.
+  private static int hash(int key) {
+    int h = key;
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    h ^= h >>> 16;
+    return h;
+  }
+}
@@ -0,0 +1,46 @@
+package examples;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+
+/** An {@link HttpTransport} on the JDK's com.sun.net.httpserver.HttpServer. */
+public final class JdkHttpTransport implements HttpTransport {
+  private final HttpServer server;
+
+  public JdkHttpTransport(InetSocketAddress address) throws IOException {
+    this.server = HttpServer.create(address, 0);
+  }
+
+  @Override
+  public void createContext(String path, HttpHandler handler) {
+    server.createContext(path, handler);
+  }
+
+  /** A null executor makes the server run every exchange on its single dispatcher thread. */
+  @Override
+  public void setExecutor(Executor executor) {
+    server.setExecutor(executor);
+  }
+
+  /** Does nothing: HttpServer streams request bodies, see {@link ApiHandler}. */
+  @Override
+  public void setMaxRequestBodySize(int bytes) {}
+
+  @Override
+  public void start() {
+    server.start();
+  }
+
+  @Override
+  public void stop() {
+    server.stop(0);
+  }
+
+  @Override
+  public InetSocketAddress getAddress() {
+    return server.getAddress();
+  }
+}
@@ -0,0 +1,79 @@
+package examples;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream which fails with {@link LimitExceededException} as soon as more than {@code
+ * limit} bytes are read from it.
+ *
+ * <p>The limit is enforced while streaming: it holds even if the Content-Length header is missing
+ * or wrong, and when wrapping a decompressing stream it bounds the decompressed size, whatever the
+ * compression ratio.
+ */
+public final class LimitedInputStream extends FilterInputStream {
+  private final long limit;
+  private long remaining;
+
+  /** Thrown when more than the limit is read. */
+  public static final class LimitExceededException extends IOException {
+    LimitExceededException(long limit) {
+      super("body larger than " + limit + " bytes");
+    }
+  }
+
+  public LimitedInputStream(InputStream in, int limit) {
+    super(in);
+    this.limit = limit;
+    this.remaining = limit;
+  }
+
+  @Override
+  public int read() throws IOException {
+    checkNotExceeded();
+    final int result = in.read();
+    if (result >= 0) {
+      consume(1);
+    }
+    return result;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    checkNotExceeded();
+    // Read one byte past the limit at most, to tell a body of exactly the limit from a larger one.
+    final int result = in.read(b, off, (int) Math.min(len, remaining + 1));
+    if (result > 0) {
+      consume(result);
+    }
+    return result;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    checkNotExceeded();
+    final long result = in.skip(Math.min(n, remaining + 1));
+    consume(result);
+    return result;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  /** Past the limit, reading 0 bytes at a time would never end: keep failing instead. */
+  private void checkNotExceeded() throws LimitExceededException {
+    if (remaining < 0) {
+      throw new LimitExceededException(limit);
+    }
+  }
+
+  private void consume(long count) throws LimitExceededException {
+    remaining -= count;
+    if (remaining < 0) {
+      throw new LimitExceededException(limit);
+    }
+  }
+}
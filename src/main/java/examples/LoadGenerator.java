@@ -0,0 +1,251 @@
+package examples;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import land.soia.service.ServiceClient;
+import org.HdrHistogram.Histogram;
+import soiagen.service.AddUserRequest;
+import soiagen.service.AddUsersRequest;
+import soiagen.service.GetUserRequest;
+import soiagen.service.Methods;
+import soiagen.user.SubscriptionStatus;
+import soiagen.user.User;
+
+/**
+ * Sends a mix of AddUser and GetUser requests to a running StartService at a fixed arrival rate,
+ * and reports the latency distribution.
+ *
+ * <p>Run with: ./gradlew run -PmainClass=examples.LoadGenerator --args='--rate=5000
+ * --concurrency=64'
+ *
+ * <p>The load is open-loop: request i is due at {@code start + i / rate}, whether or not the
+ * previous requests have completed. Latency is measured from that due time, not from the time the
+ * request was actually sent, so when the service (or the pool of {@code --concurrency} senders)
+ * falls behind, the waiting shows up in the percentiles instead of silently lowering the rate.
+ * This avoids the coordinated omission of closed-loop benchmarks. The service time, measured from
+ * the actual send, is reported separately.
+ */
+public class LoadGenerator {
+  // Latencies are recorded in microseconds, up to one hour.
+  private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+  // Users are preloaded with AddUsers, this many per request.
+  private static final int PRELOAD_BATCH_SIZE = 1000;
+
+  /** Command-line options, passed as {@code --name=value}. */
+  private static final class Options {
+    String url = "http://localhost:8787/myapi";
+
+    /** {@code --rate}: requests per second. */
+    int rate = 1000;
+
+    /** {@code --concurrency}: number of threads sending requests. */
+    int concurrency = 16;
+
+    /** {@code --duration-seconds}: measured duration, after the warmup. */
+    int durationSeconds = 30;
+
+    /** {@code --warmup-seconds}: duration of the load whose latencies are not recorded. */
+    int warmupSeconds = 5;
+
+    /** {@code --add-user-percent}: percentage of AddUser requests, the rest are GetUser. */
+    int addUserPercent = 10;
+
+    /** {@code --users}: ids of the users added and looked up are in [1, users]. */
+    int users = 10_000;
+
+    static Options parse(String[] args) {
+      final Options options = new Options();
+      for (String arg : args) {
+        final int equalsIndex = arg.indexOf('=');
+        if (!arg.startsWith("--") || equalsIndex < 0) {
+          throw new IllegalArgumentException("expected --name=value, got: " + arg);
+        }
+        final String name = arg.substring(2, equalsIndex);
+        final String value = arg.substring(equalsIndex + 1);
+        switch (name) {
+          case "url" -> options.url = value;
+          case "rate" -> options.rate = parseInt(name, value, 1);
+          case "concurrency" -> options.concurrency = parseInt(name, value, 1);
+          case "duration-seconds" -> options.durationSeconds = parseInt(name, value, 1);
+          case "warmup-seconds" -> options.warmupSeconds = parseInt(name, value, 0);
+          case "add-user-percent" -> {
+            options.addUserPercent = parseInt(name, value, 0);
+            if (options.addUserPercent > 100) {
+              throw new IllegalArgumentException("--add-user-percent must be at most 100");
+            }
+          }
+          case "users" -> options.users = parseInt(name, value, 1);
+          default -> throw new IllegalArgumentException("unknown option: --" + name);
+        }
+      }
+      return options;
+    }
+
+    private static int parseInt(String name, String value, int min) {
+      final int result;
+      try {
+        result = Integer.parseInt(value);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("--" + name + " must be an integer, got: " + value);
+      }
+      if (result < min) {
+        throw new IllegalArgumentException("--" + name + " must be at least " + min);
+      }
+      return result;
+    }
+  }
+
+  /** The latencies recorded by one sender thread. */
+  private static final class Recording {
+    final Histogram responseTime = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+    final Histogram serviceTime = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    final Options options = Options.parse(args);
+    final ServiceClient serviceClient =
+        new ServiceClient(
+            options.url, Map.of(), ServiceClients.newHttpClient(options.concurrency));
+
+    System.out.println("Adding " + options.users + " users...");
+    final AtomicLong nextBatchStart = new AtomicLong(1);
+    runThreads(
+        options.concurrency,
+        () -> {
+          long batchStart;
+          while ((batchStart = nextBatchStart.getAndAdd(PRELOAD_BATCH_SIZE)) <= options.users) {
+            final List<User> batch = new ArrayList<>();
+            for (long userId = batchStart;
+                userId < batchStart + PRELOAD_BATCH_SIZE && userId <= options.users;
+                userId++) {
+              batch.add(newUser((int) userId));
+            }
+            serviceClient.invokeRemoteBlocking(
+                Methods.ADD_USERS,
+                AddUsersRequest.builder().setUsers(batch).build(),
+                Map.of(),
+                Duration.ofSeconds(30));
+          }
+        });
+
+    System.out.printf(
+        "Sending %d requests/s for %ds (+%ds of warmup) from %d threads, %d%% AddUser%n",
+        options.rate,
+        options.durationSeconds,
+        options.warmupSeconds,
+        options.concurrency,
+        options.addUserPercent);
+    final long intervalNanos = TimeUnit.SECONDS.toNanos(1) / options.rate;
+    final long startNanos = System.nanoTime();
+    final long measureStartNanos = startNanos + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+    final long endNanos = measureStartNanos + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+    final AtomicLong nextRequest = new AtomicLong();
+    final LongAdder errors = new LongAdder();
+    final List<Recording> recordings = new ArrayList<>();
+    runThreads(
+        options.concurrency,
+        () -> {
+          final Recording recording = new Recording();
+          synchronized (recordings) {
+            recordings.add(recording);
+          }
+          final ThreadLocalRandom random = ThreadLocalRandom.current();
+          while (true) {
+            final long dueNanos = startNanos + nextRequest.getAndIncrement() * intervalNanos;
+            if (dueNanos >= endNanos) {
+              return;
+            }
+            long now;
+            while ((now = System.nanoTime()) < dueNanos) {
+              LockSupport.parkNanos(dueNanos - now);
+            }
+            final int userId = 1 + random.nextInt(options.users);
+            try {
+              if (random.nextInt(100) < options.addUserPercent) {
+                addUser(serviceClient, userId);
+              } else {
+                serviceClient.invokeRemoteBlocking(
+                    Methods.GET_USER,
+                    GetUserRequest.builder().setUserId(userId).build(),
+                    Map.of(),
+                    Duration.ofSeconds(30));
+              }
+            } catch (Exception e) {
+              errors.increment();
+            }
+            final long endOfRequestNanos = System.nanoTime();
+            if (dueNanos >= measureStartNanos) {
+              record(recording.responseTime, endOfRequestNanos - dueNanos);
+              record(recording.serviceTime, endOfRequestNanos - now);
+            }
+          }
+        });
+
+    final Histogram responseTime = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+    final Histogram serviceTime = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+    for (Recording recording : recordings) {
+      responseTime.add(recording.responseTime);
+      serviceTime.add(recording.serviceTime);
+    }
+    System.out.printf(
+        "Completed %d requests (%.0f/s), %d errors%n",
+        responseTime.getTotalCount(),
+        responseTime.getTotalCount() / (double) options.durationSeconds,
+        errors.sum());
+    printLatencies("Response time (from the due time)", responseTime);
+    printLatencies("Service time (from the actual send)", serviceTime);
+  }
+
+  private static void addUser(ServiceClient serviceClient, int userId) {
+    serviceClient.invokeRemoteBlocking(
+        Methods.ADD_USER,
+        AddUserRequest.builder().setUser(newUser(userId)).build(),
+        Map.of(),
+        Duration.ofSeconds(30));
+  }
+
+  private static User newUser(int userId) {
+    return User.builder()
+        .setName("User " + userId)
+        .setPets(List.of())
+        .setQuote("")
+        .setSubscriptionStatus(SubscriptionStatus.FREE)
+        .setUserId(userId)
+        .build();
+  }
+
+  /** Runs {@code task} on {@code threads} threads and waits for all of them to return. */
+  private static void runThreads(int threads, Runnable task) throws InterruptedException {
+    final List<Thread> threadList = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      final Thread thread = new Thread(task, "load-generator-" + i);
+      thread.start();
+      threadList.add(thread);
+    }
+    for (Thread thread : threadList) {
+      thread.join();
+    }
+  }
+
+  private static void record(Histogram histogram, long nanos) {
+    histogram.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), HIGHEST_TRACKABLE_MICROS));
+  }
+
+  private static void printLatencies(String title, Histogram histogram) {
+    System.out.println(title + ", in ms:");
+    System.out.printf(
+        "  p50=%.3f  p90=%.3f  p99=%.3f  p99.9=%.3f  max=%.3f%n",
+        histogram.getValueAtPercentile(50) / 1000.0,
+        histogram.getValueAtPercentile(90) / 1000.0,
+        histogram.getValueAtPercentile(99) / 1000.0,
+        histogram.getValueAtPercentile(99.9) / 1000.0,
+        histogram.getMaxValue() / 1000.0);
+  }
+}
@@ -0,0 +1,210 @@
+package examples;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import soiagen.user.User;
+
+/**
+ * A read-only snapshot file written by {@link UserSnapshots}, memory-mapped with {@code
+ * FileChannel.map}.
+ *
+ * <p>Opening a snapshot only reads its footer: users are decoded with {@code
+ * User.SERIALIZER.fromBytes} when they are looked up, and the pages of the file are loaded by the
+ * OS as they are touched. This makes startup time independent of the number of users.
+ *
+ * <p>The file layout is:
+ *
+ * <pre>
+ * data:   User.SERIALIZER.toBytes(user) for every user, back to back
+ * index:  [user_id: int32][offset: int64][length: int32] for every user, sorted by user_id
+ * footer: [index offset: int64][user count: int32][max record length: int32][magic: int32]
+ * </pre>
+ *
+ * <p>Instances are safe to use from multiple threads.
+ */
+public final class MappedUserSnapshot implements Closeable {
+  static final int MAGIC = 0x55535231; // "USR1"
+  static final int INDEX_ENTRY_SIZE = 16;
+  static final int FOOTER_SIZE = 20;
+
+  // A MappedByteBuffer can address at most 2GB, so the data section is mapped in regions. Each
+  // region overlaps the next one by the length of the largest record, so that a record starting
+  // in a region always ends in the same region.
+  private static final long REGION_SIZE = 1L << 30;
+
+  private final Path path;
+  private final long sequence;
+  private final FileChannel channel;
+  private final MappedByteBuffer index;
+  private final MappedByteBuffer[] regions;
+  private final long regionSize;
+  private final int size;
+
+  private MappedUserSnapshot(
+      Path path,
+      long sequence,
+      FileChannel channel,
+      MappedByteBuffer index,
+      MappedByteBuffer[] regions,
+      long regionSize,
+      int size) {
+    this.path = path;
+    this.sequence = sequence;
+    this.channel = channel;
+    this.index = index;
+    this.regions = regions;
+    this.regionSize = regionSize;
+    this.size = size;
+  }
+
+  /** Returns true if the file at {@code path} ends with the footer of this format. */
+  static boolean isIndexed(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final long fileSize = channel.size();
+      if (fileSize < FOOTER_SIZE) {
+        return false;
+      }
+      final ByteBuffer magic = ByteBuffer.allocate(4);
+      while (magic.hasRemaining()) {
+        if (channel.read(magic, fileSize - 4 + magic.position()) < 0) {
+          return false;
+        }
+      }
+      return magic.getInt(0) == MAGIC;
+    }
+  }
+
+  /**
+   * Maps the snapshot at {@code path}.
+   *
+   * @param sequence the first log segment not covered by the snapshot
+   */
+  public static MappedUserSnapshot open(Path path, long sequence) throws IOException {
+    return open(path, sequence, REGION_SIZE);
+  }
+
+  /** Same as {@link #open(Path, long)}, with regions of {@code regionSize} bytes plus overlap. */
+  static MappedUserSnapshot open(Path path, long sequence, long regionSize) throws IOException {
+    final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      final long fileSize = channel.size();
+      if (fileSize < FOOTER_SIZE) {
+        throw new IOException("Snapshot too short: " + path);
+      }
+      final ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+      while (footer.hasRemaining()) {
+        if (channel.read(footer, fileSize - FOOTER_SIZE + footer.position()) < 0) {
+          throw new IOException("Unexpected end of snapshot: " + path);
+        }
+      }
+      final long indexOffset = footer.getLong(0);
+      final int size = footer.getInt(8);
+      final int maxRecordLength = footer.getInt(12);
+      if (footer.getInt(16) != MAGIC
+          || indexOffset + (long) size * INDEX_ENTRY_SIZE != fileSize - FOOTER_SIZE) {
+        throw new IOException("Not a user snapshot: " + path);
+      }
+      final MappedByteBuffer index =
+          channel.map(
+              FileChannel.MapMode.READ_ONLY, indexOffset, (long) size * INDEX_ENTRY_SIZE);
+      final int regionCount = (int) ((indexOffset + regionSize - 1) / regionSize);
+      final MappedByteBuffer[] regions = new MappedByteBuffer[regionCount];
+      for (int i = 0; i < regionCount; i++) {
+        final long start = i * regionSize;
+        final long end = Math.min(indexOffset, start + regionSize + maxRecordLength);
+        regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+      }
+      return new MappedUserSnapshot(path, sequence, channel, index, regions, regionSize, size);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  public Path path() {
+    return path;
+  }
+
+  /** Returns the sequence number of the first log segment which is not covered by the snapshot. */
+  public long sequence() {
+    return sequence;
+  }
+
+  /** Returns the number of users in the snapshot. */
+  public int size() {
+    return size;
+  }
+
+  public boolean contains(int userId) {
+    return find(userId) >= 0;
+  }
+
+  /** Decodes and returns the user with the given id, or returns null if there is none. */
+  public User get(int userId) {
+    final int entry = find(userId);
+    return entry >= 0 ? decode(entry) : null;
+  }
+
+  /** Decodes and passes to {@code action} every user whose id matches {@code filter}. */
+  public void forEach(IntPredicate filter, Consumer<User> action) {
+    for (int entry = 0; entry < size; entry++) {
+      if (filter.test(userIdAt(entry))) {
+        action.accept(decode(entry));
+      }
+    }
+  }
+
+  /**
+   * Closes the file. The mapping itself remains valid until the buffers are garbage collected, as
+   * it does after the file is deleted.
+   */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private User decode(int entry) {
+    return User.SERIALIZER.fromBytes(encodedAt(entry));
+  }
+
+  /** Returns the position of the user in the index, or -1. */
+  private int find(int userId) {
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int midUserId = userIdAt(mid);
+      if (midUserId < userId) {
+        low = mid + 1;
+      } else if (midUserId > userId) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns the id of the user at position {@code entry} of the index. */
+  int userIdAt(int entry) {
+    return index.getInt(entry * INDEX_ENTRY_SIZE);
+  }
+
+  /** Returns the encoded record of the user at position {@code entry} of the index. */
+  byte[] encodedAt(int entry) {
+    final long offset = index.getLong(entry * INDEX_ENTRY_SIZE + 4);
+    final int length = index.getInt(entry * INDEX_ENTRY_SIZE + 12);
+    final int region = (int) (offset / regionSize);
+    final byte[] bytes = new byte[length];
+    // Absolute bulk get: does not touch the buffer's position, so concurrent reads are safe.
+    regions[region].get((int) (offset - region * regionSize), bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,969 @@
+package examples;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A selector-based HTTP/1.1 server which runs the same {@link HttpHandler}s as the JDK HttpServer.
+ *
+ * <p>One thread owns a selector and does all the I/O. It reads each request, headers and body,
+ * into memory, then hands it to the handler as an {@link HttpExchange}, on the executor if one is
+ * set or else on the selector thread. The handler may complete the exchange later, from any
+ * thread: the response is buffered and written back by the selector thread once the exchange is
+ * closed. Connections are kept alive across requests; requests pipelined on a connection are
+ * handled one after the other.
+ *
+ * <p>Compared to the JDK HttpServer, there is no thread per connection or per exchange, the
+ * sockets are read and written through a pool of direct buffers, and every response is sent with
+ * a Content-Length since its body is buffered anyway.
+ *
+ * <p>A connection waiting for a request is closed after {@value #IDLE_TIMEOUT_SECONDS}s. Once the
+ * first byte of a request arrives, its headers must arrive within {@value
+ * #HEADER_READ_TIMEOUT_SECONDS}s and then its body within {@value #BODY_READ_TIMEOUT_SECONDS}s, or
+ * the request gets a 408 response. A handler which does not close its exchange within {@value
+ * #HANDLING_TIMEOUT_SECONDS}s gets its response replaced with a 503 response. The selector thread
+ * checks these deadlines every second. A request with {@code Expect: 100-continue} gets an interim
+ * 100 response once its headers are accepted, and a 413 response instead if its body is too large.
+ * Responses to HEAD requests, and 1xx, 204 and 304 responses, are sent without a body.
+ *
+ * <p>Limitations: request bodies must have a Content-Length (chunked requests get a 411
+ * response), request headers must fit in {@value #BUFFER_SIZE} bytes, and filters and
+ * authenticators set on the contexts are ignored.
+ */
+public final class NioHttpTransport implements HttpTransport {
+  private static final int BUFFER_SIZE = 16 * 1024;
+  private static final int MAX_POOLED_BUFFERS = 1024;
+  private static final int DEFAULT_MAX_BODY_BYTES = 64 * 1024 * 1024;
+  private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+  private static final byte[] CONTINUE_RESPONSE =
+      "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+  private static final int IDLE_TIMEOUT_SECONDS = 60;
+  private static final int HEADER_READ_TIMEOUT_SECONDS = 10;
+  private static final int BODY_READ_TIMEOUT_SECONDS = 30;
+  private static final int HANDLING_TIMEOUT_SECONDS = 60;
+  private static final long SWEEP_INTERVAL_MILLIS = 1000;
+
+  private static final AtomicInteger selectorThreadCount = new AtomicInteger();
+
+  private final ServerSocketChannel serverChannel;
+  private final Selector selector;
+  // Its interest is cleared while accepting fails, e.g. with too many open files.
+  private final SelectionKey serverKey;
+  private final InetSocketAddress address;
+  private final AccessLog log;
+  // Guarded by itself. Sorted so that the longest matching path can be found.
+  private final TreeMap<String, NioContext> pathToContext = new TreeMap<>();
+  // Connections whose exchange was closed by a handler, to be written by the selector thread.
+  private final Queue<Connection> completed = new ConcurrentLinkedQueue<>();
+  private final BlockingQueue<ByteBuffer> bufferPool =
+      new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+  private volatile Executor executor;
+  private volatile int maxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+  private volatile boolean running;
+  private Thread selectorThread;
+
+  /** @param log where the errors of the selector thread are reported */
+  public NioHttpTransport(InetSocketAddress address, AccessLog log) throws IOException {
+    this(address, false, log);
+  }
+
+  /**
+   * @param reusePort whether to set SO_REUSEPORT, so that other transports can bind to the same
+   *     address and the kernel spreads the incoming connections between them. See {@link
+   *     ShardedHttpTransport}.
+   * @param log where the errors of the selector thread are reported
+   * @throws UnsupportedOperationException if reusePort is true and the platform does not support
+   *     SO_REUSEPORT
+   */
+  public NioHttpTransport(InetSocketAddress address, boolean reusePort, AccessLog log)
+      throws IOException {
+    this.log = log;
+    this.serverChannel = ServerSocketChannel.open();
+    serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+    if (reusePort) {
+      if (!serverChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+        serverChannel.close();
+        throw new UnsupportedOperationException("SO_REUSEPORT is not supported on this platform");
+      }
+      serverChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+    }
+    serverChannel.bind(address, 1024);
+    serverChannel.configureBlocking(false);
+    this.address = (InetSocketAddress) serverChannel.getLocalAddress();
+    this.selector = Selector.open();
+    this.serverKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+  }
+
+  @Override
+  public void createContext(String path, HttpHandler handler) {
+    synchronized (pathToContext) {
+      pathToContext.put(path, new NioContext(path, handler));
+    }
+  }
+
+  /** A null executor makes the handlers run on the selector thread: they must not block. */
+  @Override
+  public void setExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Requests whose Content-Length exceeds {@code bytes} get a 413 response before anything is
+   * allocated for their body. Smaller bodies are allocated as their bytes arrive. Defaults to
+   * {@value #DEFAULT_MAX_BODY_BYTES}.
+   */
+  @Override
+  public void setMaxRequestBodySize(int bytes) {
+    this.maxBodyBytes = bytes;
+  }
+
+  @Override
+  public void start() {
+    running = true;
+    selectorThread =
+        new Thread(this::runSelector, "nio-http-selector-" + selectorThreadCount.getAndIncrement());
+    selectorThread.start();
+  }
+
+  @Override
+  public void stop() {
+    if (selectorThread == null) {
+      // Never started: there is no connection to close.
+      closeChannels();
+      return;
+    }
+    running = false;
+    selector.wakeup();
+    try {
+      selectorThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public InetSocketAddress getAddress() {
+    return address;
+  }
+
+  private void runSelector() {
+    long nextSweepNanos = System.nanoTime();
+    try {
+      while (running) {
+        try {
+          selector.select(SWEEP_INTERVAL_MILLIS);
+        } catch (IOException e) {
+          // The connections are still registered: keep serving them rather than dropping them all.
+          log.error("Error selecting: " + e.getMessage());
+        }
+        Connection connection;
+        while ((connection = completed.poll()) != null) {
+          connection.startWriting();
+        }
+        final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          final SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+          } else {
+            ((Connection) key.attachment()).onReady(key);
+          }
+        }
+        final long nowNanos = System.nanoTime();
+        if (nowNanos - nextSweepNanos >= 0) {
+          sweep(nowNanos);
+          nextSweepNanos = nowNanos + TimeUnit.MILLISECONDS.toNanos(SWEEP_INTERVAL_MILLIS);
+        }
+      }
+    } finally {
+      for (SelectionKey key : selector.keys()) {
+        if (key.attachment() instanceof Connection connection) {
+          connection.close();
+        }
+      }
+      closeChannels();
+    }
+  }
+
+  private void closeChannels() {
+    try {
+      serverChannel.close();
+      selector.close();
+    } catch (IOException e) {
+      // Closing anyway.
+    }
+  }
+
+  /** Accepts the pending connections. A failure only affects the connection being accepted. */
+  private void accept() {
+    while (true) {
+      final SocketChannel channel;
+      try {
+        channel = serverChannel.accept();
+      } catch (IOException e) {
+        // E.g. too many open files. The connections wait in the backlog: stop selecting the server
+        // channel until the next sweep rather than failing again in a loop.
+        log.error("Error accepting a connection: " + e.getMessage());
+        serverKey.interestOps(0);
+        return;
+      }
+      if (channel == null) {
+        return;
+      }
+      try {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+      } catch (IOException | RuntimeException e) {
+        log.error("Error registering a connection: " + e.getMessage());
+        try {
+          channel.close();
+        } catch (IOException closeError) {
+          // Closing anyway.
+        }
+      }
+    }
+  }
+
+  /**
+   * Times out the connections which are too slow to send a request or to handle it, and resumes
+   * accepting.
+   */
+  private void sweep(long nowNanos) {
+    if (serverKey.isValid() && serverKey.interestOps() == 0) {
+      serverKey.interestOps(SelectionKey.OP_ACCEPT);
+    }
+    // Copied since a timed out connection cancels its key.
+    for (SelectionKey key : new ArrayList<>(selector.keys())) {
+      if (key.attachment() instanceof Connection connection) {
+        connection.checkDeadline(nowNanos);
+      }
+    }
+  }
+
+  private NioContext findContext(String path) {
+    synchronized (pathToContext) {
+      // The longest registered path which is a prefix of the request path.
+      for (Map.Entry<String, NioContext> entry = pathToContext.floorEntry(path);
+          entry != null;
+          entry = pathToContext.lowerEntry(entry.getKey())) {
+        if (path.startsWith(entry.getKey())) {
+          return entry.getValue();
+        }
+      }
+      return null;
+    }
+  }
+
+  private ByteBuffer acquireBuffer() {
+    final ByteBuffer buffer = bufferPool.poll();
+    return buffer != null ? buffer.clear() : ByteBuffer.allocateDirect(BUFFER_SIZE);
+  }
+
+  private void releaseBuffer(ByteBuffer buffer) {
+    // Drops the buffer if the pool is full.
+    bufferPool.offer(buffer);
+  }
+
+  private enum State {
+    READING_HEADERS,
+    READING_BODY,
+    HANDLING,
+    WRITING,
+    CLOSED
+  }
+
+  /** One client connection. Only accessed by the selector thread, except where noted. */
+  private final class Connection {
+    final SocketChannel channel;
+    final SelectionKey key;
+    State state;
+    // In write mode: the bytes received and not consumed yet are in [0, position).
+    ByteBuffer readBuffer = acquireBuffer();
+    // While reading or handling: when the connection times out, see checkDeadline().
+    long deadlineNanos;
+    // Whether the first byte of the request being read has arrived.
+    boolean requestStarted;
+
+    // The request being read. The body grows as its bytes arrive, up to the Content-Length.
+    String requestLine;
+    Headers requestHeaders;
+    // While handling: the exchange, so that it can be timed out.
+    NioExchange exchange;
+    byte[] body;
+    int bodyLength;
+    int contentLength;
+
+    // The response being written. Set by the thread which closes the exchange, before the
+    // connection is added to the completed queue.
+    byte[] responseHead;
+    byte[] responseBody;
+    int responseBodyLength;
+    boolean closeAfterResponse;
+    int responseHeadPosition;
+    int responseBodyPosition;
+    ByteBuffer writeBuffer;
+
+    Connection(SocketChannel channel, SelectionKey key) {
+      this.channel = channel;
+      this.key = key;
+      awaitRequest();
+    }
+
+    /** Waits for the next request, for at most the idle timeout. */
+    void awaitRequest() {
+      state = State.READING_HEADERS;
+      requestStarted = false;
+      deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(IDLE_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Closes the connection, or sends a 408 or 503 response, if it is reading or handling a request
+     * past its deadline.
+     */
+    void checkDeadline(long nowNanos) {
+      if (nowNanos - deadlineNanos < 0) {
+        return;
+      }
+      if (state == State.HANDLING) {
+        // Unless the handler is closing the exchange right now: then its response is on the way.
+        if (exchange.timeOut()) {
+          sendError(503, "Service Unavailable");
+        }
+      } else if (state == State.READING_HEADERS || state == State.READING_BODY) {
+        if (requestStarted) {
+          sendError(408, "Request Timeout");
+        } else {
+          close();
+        }
+      }
+    }
+
+    void onReady(SelectionKey key) {
+      try {
+        if (key.isReadable()) {
+          if (channel.read(readBuffer) < 0) {
+            close();
+            return;
+          }
+          parse();
+        } else if (key.isWritable()) {
+          write();
+        }
+      } catch (IOException | RuntimeException e) {
+        close();
+      }
+    }
+
+    /** Consumes the buffered bytes, and dispatches the request once it has been fully read. */
+    void parse() throws IOException {
+      if (state == State.READING_HEADERS) {
+        if (!requestStarted && readBuffer.position() > 0) {
+          requestStarted = true;
+          deadlineNanos =
+              System.nanoTime() + TimeUnit.SECONDS.toNanos(HEADER_READ_TIMEOUT_SECONDS);
+        }
+        final int headerEnd = indexOf(readBuffer, HEADER_END);
+        if (headerEnd < 0) {
+          if (!readBuffer.hasRemaining()) {
+            sendError(431, "Request Header Fields Too Large");
+          }
+          return;
+        }
+        final byte[] head = new byte[headerEnd];
+        readBuffer.get(0, head);
+        consume(headerEnd + HEADER_END.length);
+        if (!parseHead(new String(head, StandardCharsets.ISO_8859_1))) {
+          return;
+        }
+        state = State.READING_BODY;
+        deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(BODY_READ_TIMEOUT_SECONDS);
+        // Unless the client did not wait for it and already sent some of the body.
+        if (contentLength > 0
+            && readBuffer.position() == 0
+            && "100-continue".equalsIgnoreCase(requestHeaders.getFirst("Expect"))
+            && !sendContinue()) {
+          return;
+        }
+      }
+      if (state == State.READING_BODY) {
+        final int length = Math.min(readBuffer.position(), contentLength - bodyLength);
+        if (bodyLength + length > body.length) {
+          // Doubles, so that a body arriving in small reads is only copied a few times.
+          body =
+              Arrays.copyOf(
+                  body, Math.min(Math.max(bodyLength + length, 2 * body.length), contentLength));
+        }
+        readBuffer.get(0, body, bodyLength, length);
+        bodyLength += length;
+        consume(length);
+        if (bodyLength == contentLength) {
+          dispatch();
+        }
+      }
+    }
+
+    /** Sends the interim 100 response. Returns false if the connection was closed instead. */
+    boolean sendContinue() throws IOException {
+      final ByteBuffer response = ByteBuffer.wrap(CONTINUE_RESPONSE);
+      channel.write(response);
+      if (response.hasRemaining()) {
+        // The socket's send buffer is full: the client is not reading its previous responses.
+        close();
+        return false;
+      }
+      return true;
+    }
+
+    /** Parses the request line and headers. Returns false if an error response was sent. */
+    boolean parseHead(String head) throws IOException {
+      final String[] lines = head.split("\r\n");
+      requestLine = lines[0];
+      requestHeaders = new Headers();
+      for (int i = 1; i < lines.length; i++) {
+        final int colonIndex = lines[i].indexOf(':');
+        if (colonIndex <= 0) {
+          sendError(400, "Bad Request");
+          return false;
+        }
+        requestHeaders.add(
+            lines[i].substring(0, colonIndex).trim(), lines[i].substring(colonIndex + 1).trim());
+      }
+      if (requestHeaders.containsKey("Transfer-Encoding")) {
+        sendError(411, "Length Required");
+        return false;
+      }
+      final String contentLengthHeader = requestHeaders.getFirst("Content-Length");
+      long length = 0;
+      if (contentLengthHeader != null) {
+        try {
+          length = Long.parseLong(contentLengthHeader.trim());
+        } catch (NumberFormatException e) {
+          length = -1;
+        }
+        if (length < 0) {
+          sendError(400, "Bad Request");
+          return false;
+        }
+      }
+      if (length > maxBodyBytes) {
+        sendError(413, "Content Too Large");
+        return false;
+      }
+      contentLength = (int) length;
+      // The Content-Length is only an upper bound until the bytes arrive: don't allocate it all.
+      body = new byte[Math.min(contentLength, BUFFER_SIZE)];
+      bodyLength = 0;
+      return true;
+    }
+
+    void dispatch() throws IOException {
+      final String[] parts = requestLine.split(" ");
+      final URI uri;
+      try {
+        uri = parts.length == 3 ? URI.create(parts[1]) : null;
+      } catch (IllegalArgumentException e) {
+        sendError(400, "Bad Request");
+        return;
+      }
+      if (uri == null) {
+        sendError(400, "Bad Request");
+        return;
+      }
+      final NioContext context = findContext(uri.getPath() != null ? uri.getPath() : "/");
+      if (context == null) {
+        sendError(404, "Not Found");
+        return;
+      }
+      final String protocol = parts[2];
+      final String connectionHeader = requestHeaders.getFirst("Connection");
+      final boolean keepAlive =
+          protocol.equals("HTTP/1.1")
+              ? !"close".equalsIgnoreCase(connectionHeader)
+              : "keep-alive".equalsIgnoreCase(connectionHeader);
+      final NioExchange exchange =
+          new NioExchange(
+              this, context, parts[0], uri, protocol, requestHeaders, body, keepAlive);
+      requestHeaders = null;
+      body = null;
+      // Stop reading until the response has been written: pipelined requests wait in the buffer.
+      state = State.HANDLING;
+      this.exchange = exchange;
+      deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(HANDLING_TIMEOUT_SECONDS);
+      key.interestOps(0);
+      final Runnable task = () -> exchange.run();
+      final Executor currentExecutor = executor;
+      if (currentExecutor != null) {
+        currentExecutor.execute(task);
+      } else {
+        task.run();
+      }
+    }
+
+    /** Called by the thread which closes the exchange. */
+    void complete(byte[] head, byte[] body, int bodyLength, boolean close) {
+      responseHead = head;
+      responseBody = body;
+      responseBodyLength = bodyLength;
+      closeAfterResponse = close;
+      completed.add(this);
+      selector.wakeup();
+    }
+
+    void startWriting() {
+      if (state == State.CLOSED) {
+        return;
+      }
+      state = State.WRITING;
+      exchange = null;
+      responseHeadPosition = 0;
+      responseBodyPosition = 0;
+      writeBuffer = acquireBuffer().flip();
+      try {
+        write();
+      } catch (IOException | RuntimeException e) {
+        close();
+      }
+    }
+
+    void write() throws IOException {
+      while (true) {
+        if (writeBuffer.hasRemaining()) {
+          channel.write(writeBuffer);
+          if (writeBuffer.hasRemaining()) {
+            key.interestOps(SelectionKey.OP_WRITE);
+            return;
+          }
+        }
+        // Refill the direct buffer from the head, then from the body.
+        writeBuffer.clear();
+        int length = Math.min(writeBuffer.remaining(), responseHead.length - responseHeadPosition);
+        writeBuffer.put(responseHead, responseHeadPosition, length);
+        responseHeadPosition += length;
+        length = Math.min(writeBuffer.remaining(), responseBodyLength - responseBodyPosition);
+        writeBuffer.put(responseBody, responseBodyPosition, length);
+        responseBodyPosition += length;
+        writeBuffer.flip();
+        if (!writeBuffer.hasRemaining()) {
+          break;
+        }
+      }
+      releaseBuffer(writeBuffer);
+      writeBuffer = null;
+      responseHead = null;
+      responseBody = null;
+      if (closeAfterResponse) {
+        close();
+        return;
+      }
+      awaitRequest();
+      key.interestOps(SelectionKey.OP_READ);
+      // The next request may already be in the buffer.
+      parse();
+    }
+
+    /** Sends a response without calling any handler, then closes the connection. */
+    void sendError(int statusCode, String reason) {
+      final byte[] text = reason.getBytes(StandardCharsets.ISO_8859_1);
+      final String head =
+          "HTTP/1.1 "
+              + statusCode
+              + " "
+              + reason
+              + "\r\nContent-Type: text/plain\r\nContent-Length: "
+              + text.length
+              + "\r\nConnection: close\r\n\r\n";
+      responseHead = head.getBytes(StandardCharsets.ISO_8859_1);
+      responseBody = text;
+      responseBodyLength = text.length;
+      closeAfterResponse = true;
+      key.interestOps(0);
+      startWriting();
+    }
+
+    /** Removes {@code length} bytes from the front of the read buffer. */
+    void consume(int length) {
+      readBuffer.flip().position(length);
+      readBuffer.compact();
+    }
+
+    void close() {
+      if (state == State.CLOSED) {
+        return;
+      }
+      state = State.CLOSED;
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // Closing anyway.
+      }
+      releaseBuffer(readBuffer);
+      readBuffer = null;
+      if (writeBuffer != null) {
+        releaseBuffer(writeBuffer);
+        writeBuffer = null;
+      }
+    }
+  }
+
+  /** Returns the index of {@code pattern} in [0, position) of {@code buffer}, or -1. */
+  private static int indexOf(ByteBuffer buffer, byte[] pattern) {
+    final int end = buffer.position() - pattern.length;
+    outer:
+    for (int i = 0; i <= end; i++) {
+      for (int j = 0; j < pattern.length; j++) {
+        if (buffer.get(i + j) != pattern[j]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  private final class NioExchange extends HttpExchange {
+    private final Connection connection;
+    private final NioContext context;
+    private final String method;
+    private final URI uri;
+    private final String protocol;
+    private final Headers requestHeaders;
+    private final Headers responseHeaders = new Headers();
+    private final InetSocketAddress remoteAddress;
+    private final InetSocketAddress localAddress;
+    private final boolean keepAlive;
+    private final ResponseBody buffer = new ResponseBody();
+    // Set by the first of close() and timeOut().
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final Map<String, Object> attributes = new HashMap<>();
+    private InputStream requestBody;
+    private OutputStream responseBody = buffer;
+    private volatile int responseCode = -1;
+
+    NioExchange(
+        Connection connection,
+        NioContext context,
+        String method,
+        URI uri,
+        String protocol,
+        Headers requestHeaders,
+        byte[] body,
+        boolean keepAlive)
+        throws IOException {
+      this.connection = connection;
+      this.context = context;
+      this.method = method;
+      this.uri = uri;
+      this.protocol = protocol;
+      this.requestHeaders = requestHeaders;
+      this.requestBody = new ByteArrayInputStream(body);
+      this.remoteAddress = (InetSocketAddress) connection.channel.getRemoteAddress();
+      this.localAddress = (InetSocketAddress) connection.channel.getLocalAddress();
+      this.keepAlive = keepAlive;
+    }
+
+    void run() {
+      try {
+        context.getHandler().handle(this);
+      } catch (Throwable e) {
+        if (responseCode < 0) {
+          responseCode = 500;
+          responseHeaders.clear();
+        }
+        close();
+      }
+    }
+
+    /** Closing the stream completes the exchange, as with the JDK HttpServer. */
+    private final class ResponseBody extends ByteArrayOutputStream {
+      ResponseBody() {
+        super(256);
+      }
+
+      /** The internal array, to write the response without copying it. */
+      byte[] array() {
+        return buf;
+      }
+
+      @Override
+      public void close() {
+        NioExchange.this.close();
+      }
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+      return requestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+      return responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+      return uri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+      return method;
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+      return context;
+    }
+
+    /**
+     * Called by the selector thread when the handler takes too long. Returns false if the exchange
+     * was closed already; otherwise the response of the handler, if it ever closes the exchange, is
+     * dropped.
+     */
+    boolean timeOut() {
+      return closed.compareAndSet(false, true);
+    }
+
+    @Override
+    public void close() {
+      if (!closed.compareAndSet(false, true)) {
+        return;
+      }
+      if (responseCode < 0) {
+        // The handler never sent a response.
+        responseCode = 500;
+      }
+      // Interim, 204 and 304 responses never have a body, nor a Content-Length.
+      final boolean bodyAllowed = responseCode >= 200 && responseCode != 204 && responseCode != 304;
+      final boolean close =
+          !keepAlive || "close".equalsIgnoreCase(responseHeaders.getFirst("Connection"));
+      final StringBuilder head =
+          new StringBuilder(128)
+              .append("HTTP/1.1 ")
+              .append(responseCode)
+              .append(' ')
+              .append(reasonPhrase(responseCode))
+              .append("\r\n");
+      // Written below from what the transport actually does, rather than duplicated.
+      responseHeaders.remove("Content-Length");
+      responseHeaders.remove("Transfer-Encoding");
+      responseHeaders.remove("Connection");
+      responseHeaders.forEach(
+          (name, values) -> {
+            for (String value : values) {
+              head.append(name).append(": ").append(value).append("\r\n");
+            }
+          });
+      if (bodyAllowed) {
+        // For a HEAD request, the length of the body which a GET request would get.
+        head.append("Content-Length: ").append(buffer.size()).append("\r\n");
+      }
+      if (close) {
+        head.append("Connection: close\r\n");
+      }
+      head.append("\r\n");
+      connection.complete(
+          head.toString().getBytes(StandardCharsets.ISO_8859_1),
+          buffer.array(),
+          bodyAllowed && !method.equals("HEAD") ? buffer.size() : 0,
+          close);
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+      return requestBody;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+      return responseBody;
+    }
+
+    /** The response length is ignored: the body is buffered and its actual length is sent. */
+    @Override
+    public void sendResponseHeaders(int responseCode, long responseLength) throws IOException {
+      if (this.responseCode >= 0) {
+        throw new IOException("headers already sent");
+      }
+      this.responseCode = responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+      return remoteAddress;
+    }
+
+    @Override
+    public int getResponseCode() {
+      return responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+      return localAddress;
+    }
+
+    @Override
+    public String getProtocol() {
+      return protocol;
+    }
+
+    @Override
+    public synchronized Object getAttribute(String name) {
+      return attributes.get(name);
+    }
+
+    @Override
+    public synchronized void setAttribute(String name, Object value) {
+      attributes.put(name, value);
+    }
+
+    @Override
+    public void setStreams(InputStream requestBody, OutputStream responseBody) {
+      if (requestBody != null) {
+        this.requestBody = requestBody;
+      }
+      if (responseBody != null) {
+        this.responseBody = responseBody;
+      }
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+      return null;
+    }
+  }
+
+  private static final class NioContext extends HttpContext {
+    private final String path;
+    private volatile HttpHandler handler;
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final List<Filter> filters = new ArrayList<>();
+    private Authenticator authenticator;
+
+    NioContext(String path, HttpHandler handler) {
+      this.path = path;
+      this.handler = handler;
+    }
+
+    @Override
+    public HttpHandler getHandler() {
+      return handler;
+    }
+
+    @Override
+    public void setHandler(HttpHandler handler) {
+      this.handler = handler;
+    }
+
+    @Override
+    public String getPath() {
+      return path;
+    }
+
+    /** Always null: there is no com.sun.net.httpserver.HttpServer behind this context. */
+    @Override
+    public HttpServer getServer() {
+      return null;
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+      return attributes;
+    }
+
+    @Override
+    public List<Filter> getFilters() {
+      return filters;
+    }
+
+    @Override
+    public Authenticator setAuthenticator(Authenticator authenticator) {
+      final Authenticator previous = this.authenticator;
+      this.authenticator = authenticator;
+      return previous;
+    }
+
+    @Override
+    public Authenticator getAuthenticator() {
+      return authenticator;
+    }
+  }
+
+  private static String reasonPhrase(int statusCode) {
+    switch (statusCode) {
+      case 200:
+        return "OK";
+      case 204:
+        return "No Content";
+      case 304:
+        return "Not Modified";
+      case 400:
+        return "Bad Request";
+      case 404:
+        return "Not Found";
+      case 408:
+        return "Request Timeout";
+      case 411:
+        return "Length Required";
+      case 412:
+        return "Precondition Failed";
+      case 413:
+        return "Content Too Large";
+      case 415:
+        return "Unsupported Media Type";
+      case 429:
+        return "Too Many Requests";
+      case 431:
+        return "Request Header Fields Too Large";
+      case 500:
+        return "Internal Server Error";
+      case 503:
+        return "Service Unavailable";
+      default:
+        return "";
+    }
+  }
+}
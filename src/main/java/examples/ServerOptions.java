@@ -0,0 +1,151 @@
+package examples;
+
+import java.nio.file.Path;
+
+/**
+ * Command-line options of StartService, passed as {@code --name=value}.
+ *
+ * <p>Example: ./gradlew run -PmainClass=examples.StartService --args='--executor=fixed --threads=8'
+ */
+public final class ServerOptions {
+  /** {@code --transport}: the HTTP engine, see {@link TransportMode}. */
+  TransportMode transport = TransportMode.JDK;
+
+  /**
+   * {@code --listeners}: number of listeners sharing the port with SO_REUSEPORT, each with its own
+   * selector thread and executor. Requires the nio transport if greater than 1, see {@link
+   * ShardedHttpTransport}.
+   */
+  int listeners = 1;
+
+  /** {@code --executor}: see {@link ExecutorMode}. */
+  ExecutorMode executorMode = ExecutorMode.DEFAULT;
+
+  /**
+   * {@code --threads}: pool size for the fixed and work-stealing executors. With several listeners,
+   * each listener gets a pool of this size.
+   */
+  int threads = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * {@code --data-dir}: directory where users are persisted, see {@link DurableUserStore}. If
+   * null, users are only kept in memory.
+   */
+  Path dataDir;
+
+  /** {@code --snapshot-interval-seconds}: how often users in the data dir are snapshotted. */
+  int snapshotIntervalSeconds = 300;
+
+  /**
+   * {@code --decoded-user-cache-size}: maximum number of users decoded from the snapshot and kept
+   * in memory by {@link DurableUserStore}, 0 to decode a user on every lookup.
+   */
+  int decodedUserCacheSize = 100_000;
+
+  /** {@code --log-level}: off, error, info (one line per request) or debug. */
+  AccessLog.Level logLevel = AccessLog.Level.INFO;
+
+  /**
+   * {@code --response-cache-size}: maximum number of encoded GetUser responses kept by {@link
+   * GetUserResponseCache}, 0 to disable the cache.
+   */
+  int responseCacheSize = 10_000;
+
+  /**
+   * {@code --compression-min-bytes}: responses at least this large are compressed if the client
+   * accepts gzip or deflate.
+   */
+  int compressionMinBytes = 1024;
+
+  /**
+   * {@code --max-request-bytes}: requests with a larger body, after decompression, get a 413
+   * response.
+   */
+  int maxRequestBytes = 1024 * 1024;
+
+  /**
+   * {@code --max-in-flight}: maximum number of calls to the service processed at once, see {@link
+   * AdmissionController}. 0 disables admission control.
+   */
+  int maxInFlight = 1000;
+
+  /** {@code --target-latency-ms}: latency above which the limit of calls in flight is lowered. */
+  int targetLatencyMs = 100;
+
+  /** {@code --max-queue-ms}: how long a call waits for the limit before it gets a 503 response. */
+  int maxQueueMs = 50;
+
+  /**
+   * {@code --read-threads}: threads running GetUser and GetUsers calls, see {@link Bulkhead}. 0
+   * runs them on the shared Dispatchers.IO pool, with no limit of their own.
+   */
+  int readThreads = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * {@code --write-threads}: threads running AddUser and AddUsers calls. 0 runs them on the shared
+   * Dispatchers.IO pool, with no limit of their own.
+   */
+  int writeThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+  /**
+   * {@code --bulkhead-queue}: calls which can wait for a read or write thread before calls get a
+   * 503 response.
+   */
+  int bulkheadQueue = 1000;
+
+  private ServerOptions() {}
+
+  public static ServerOptions parse(String[] args) {
+    final ServerOptions options = new ServerOptions();
+    for (String arg : args) {
+      final int equalsIndex = arg.indexOf('=');
+      if (!arg.startsWith("--") || equalsIndex < 0) {
+        throw new IllegalArgumentException("expected --name=value, got: " + arg);
+      }
+      final String name = arg.substring(2, equalsIndex);
+      final String value = arg.substring(equalsIndex + 1);
+      switch (name) {
+        case "transport" -> options.transport = TransportMode.parse(value);
+        case "listeners" -> options.listeners = parseInt(name, value, 1);
+        case "executor" -> options.executorMode = ExecutorMode.parse(value);
+        case "threads" -> options.threads = parseInt(name, value, 1);
+        case "data-dir" -> options.dataDir = Path.of(value);
+        case "snapshot-interval-seconds" ->
+            options.snapshotIntervalSeconds = parseInt(name, value, 1);
+        case "decoded-user-cache-size" -> options.decodedUserCacheSize = parseInt(name, value, 0);
+        case "response-cache-size" -> options.responseCacheSize = parseInt(name, value, 0);
+        case "compression-min-bytes" -> options.compressionMinBytes = parseInt(name, value, 0);
+        case "max-request-bytes" -> options.maxRequestBytes = parseInt(name, value, 1);
+        case "max-in-flight" -> options.maxInFlight = parseInt(name, value, 0);
+        case "target-latency-ms" -> options.targetLatencyMs = parseInt(name, value, 1);
+        case "max-queue-ms" -> options.maxQueueMs = parseInt(name, value, 0);
+        case "read-threads" -> options.readThreads = parseInt(name, value, 0);
+        case "write-threads" -> options.writeThreads = parseInt(name, value, 0);
+        case "bulkhead-queue" -> options.bulkheadQueue = parseInt(name, value, 0);
+        case "log-level" -> options.logLevel = AccessLog.Level.parse(value);
+        default -> throw new IllegalArgumentException("unknown option: --" + name);
+      }
+    }
+    if (options.listeners > 1 && options.transport != TransportMode.NIO) {
+      throw new IllegalArgumentException(
+          "--listeners requires --transport=nio, the "
+              + options.transport.optionValue()
+              + " transport cannot share a port");
+    }
+    return options;
+  }
+
+  private static int parseInt(String name, String value, int min) {
+    final int result;
+    try {
+      result = Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("--" + name + " must be an integer, got: " + value);
+    }
+    if (result < min) {
+      throw new IllegalArgumentException(
+          "--" + name + " must be at least " + min + ", got: " + value);
+    }
+    return result;
+  }
+}
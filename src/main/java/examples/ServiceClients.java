@@ -0,0 +1,73 @@
+package examples;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import land.soia.service.ServiceClient;
+
+/**
+ * Creates service clients which share one tuned {@link HttpClient}.
+ *
+ * <p>An HttpClient owns a connection pool and a selector thread, so every
+ * HttpClient.newHttpClient() opens its own connections, pays for its own TCP (and TLS) handshakes
+ * and starts its own threads. Clients created here share one HttpClient instead, and with it the
+ * connections to each server. The shared HttpClient:
+ *
+ * <ul>
+ *   <li>prefers HTTP/2: over https, it is negotiated with ALPN and all the calls to a server are
+ *       multiplexed over one connection. Over plain http, the JDK client does not support HTTP/2
+ *       with prior knowledge; it offers an h2c upgrade on the first request and keeps using
+ *       HTTP/1.1 keep-alive connections if the server declines, as the JDK HttpServer does.
+ *   <li>fails connection attempts after {@link #CONNECT_TIMEOUT} instead of waiting for the OS.
+ *   <li>runs its callbacks, including the parsing of async responses, on a small pool of daemon
+ *       threads instead of an unbounded cached pool.
+ * </ul>
+ *
+ * <p>The pool itself is configured with system properties read when the first HttpClient is
+ * created, e.g. -Djdk.httpclient.keepalive.timeout=30 (seconds an idle connection is kept) and
+ * -Djdk.httpclient.connectionPoolSize=64 (idle connections kept, unbounded by default).
+ */
+public final class ServiceClients {
+  public static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+
+  private ServiceClients() {}
+
+  private static final class SharedHolder {
+    static final HttpClient HTTP_CLIENT =
+        newHttpClient(Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+  }
+
+  /** Returns the HttpClient shared by the clients created here. Created on first use. */
+  public static HttpClient sharedHttpClient() {
+    return SharedHolder.HTTP_CLIENT;
+  }
+
+  /**
+   * Creates an HttpClient configured like the shared one, for callers who need their own pool.
+   *
+   * @param executorThreads number of threads running the client's callbacks
+   */
+  public static HttpClient newHttpClient(int executorThreads) {
+    return HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_2)
+        .connectTimeout(CONNECT_TIMEOUT)
+        .followRedirects(HttpClient.Redirect.NEVER)
+        .executor(
+            Executors.newFixedThreadPool(
+                executorThreads, ExecutorMode.namedThreadFactory("service-client-http-")))
+        .build();
+  }
+
+  public static ServiceClient newServiceClient(String serviceUrl) {
+    return new ServiceClient(serviceUrl, Map.of(), sharedHttpClient());
+  }
+
+  public static BinaryServiceClient newBinaryServiceClient(String serviceUrl) {
+    return new BinaryServiceClient(serviceUrl, sharedHttpClient());
+  }
+
+  public static AsyncServiceClient newAsyncServiceClient(String serviceUrl, int maxInFlight) {
+    return new AsyncServiceClient(serviceUrl, sharedHttpClient(), maxInFlight);
+  }
+}
@@ -0,0 +1,126 @@
+package examples;
+
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Several listeners bound to the same address with SO_REUSEPORT, serving the same handlers.
+ *
+ * <p>A single listener accepts every connection on one thread and, with {@link NioHttpTransport},
+ * also reads and parses every request on that thread. With SO_REUSEPORT (Linux 3.9+, macOS and
+ * the BSDs), each listener has its own accept queue and the kernel hashes incoming connections
+ * between them, so that accepting and parsing spread across cores without any lock between the
+ * listeners. Each listener can also get its own executor, see {@link #setExecutors}.
+ *
+ * <p>Connections are assigned when they are accepted: a client keeping one connection alive is
+ * served by a single listener.
+ *
+ * <p>SO_REUSEPORT would also let a second process bind the same port, and silently take part of
+ * the connections. To fail fast instead, {@link #bind} first checks that the port is free.
+ */
+public final class ShardedHttpTransport implements HttpTransport {
+  private final List<HttpTransport> listeners;
+
+  private ShardedHttpTransport(List<HttpTransport> listeners) {
+    this.listeners = listeners;
+  }
+
+  /**
+   * Binds {@code count} {@link NioHttpTransport} listeners to {@code address}. If the port is 0,
+   * the first listener picks one and the others bind to it.
+   *
+   * @param log where the listeners report the errors of their selector threads
+   *
+   * @throws java.net.BindException if the port is already taken, including by listeners with
+   *     SO_REUSEPORT of another process
+   * @throws UnsupportedOperationException if the platform does not support SO_REUSEPORT
+   */
+  public static ShardedHttpTransport bind(InetSocketAddress address, int count, AccessLog log)
+      throws IOException {
+    if (address.getPort() != 0) {
+      // Without SO_REUSEPORT, this fails if anything listens on the port. There is a window
+      // between the check and the bind, which only matters if two processes start at once.
+      try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+        probe.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        probe.bind(address);
+      }
+    }
+    final List<HttpTransport> listeners = new ArrayList<>();
+    InetSocketAddress bindAddress = address;
+    try {
+      for (int i = 0; i < count; i++) {
+        final NioHttpTransport listener = new NioHttpTransport(bindAddress, true, log);
+        listeners.add(listener);
+        bindAddress = listener.getAddress();
+      }
+    } catch (IOException | RuntimeException e) {
+      for (HttpTransport listener : listeners) {
+        listener.stop();
+      }
+      throw e;
+    }
+    return new ShardedHttpTransport(listeners);
+  }
+
+  public int listenerCount() {
+    return listeners.size();
+  }
+
+  @Override
+  public void createContext(String path, HttpHandler handler) {
+    for (HttpTransport listener : listeners) {
+      listener.createContext(path, handler);
+    }
+  }
+
+  /** Makes all the listeners run their handlers on the same executor. */
+  @Override
+  public void setExecutor(Executor executor) {
+    for (HttpTransport listener : listeners) {
+      listener.setExecutor(executor);
+    }
+  }
+
+  /**
+   * Gives each listener its own executor, created by {@code newExecutor}, so that the listeners do
+   * not contend on one task queue. A null executor runs the handlers on the listener's own thread.
+   */
+  public void setExecutors(Supplier<? extends Executor> newExecutor) {
+    for (HttpTransport listener : listeners) {
+      listener.setExecutor(newExecutor.get());
+    }
+  }
+
+  @Override
+  public void setMaxRequestBodySize(int bytes) {
+    for (HttpTransport listener : listeners) {
+      listener.setMaxRequestBodySize(bytes);
+    }
+  }
+
+  @Override
+  public void start() {
+    for (HttpTransport listener : listeners) {
+      listener.start();
+    }
+  }
+
+  @Override
+  public void stop() {
+    for (HttpTransport listener : listeners) {
+      listener.stop();
+    }
+  }
+
+  @Override
+  public InetSocketAddress getAddress() {
+    return listeners.get(0).getAddress();
+  }
+}
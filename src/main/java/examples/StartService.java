@@ -1,18 +1,25 @@
 package examples;
 
-import com.sun.net.httpserver.HttpServer;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
-import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import kotlinx.coroutines.Dispatchers;
+import land.soia.service.Service;
 import soiagen.service.AddUserRequest;
 import soiagen.service.AddUserResponse;
+import soiagen.service.AddUsersRequest;
+import soiagen.service.AddUsersResponse;
 import soiagen.service.GetUserRequest;
 import soiagen.service.GetUserResponse;
+import soiagen.service.GetUsersRequest;
+import soiagen.service.GetUsersResponse;
 import soiagen.service.Methods;
 import soiagen.user.User;
 
@@ -21,6 +28,8 @@ import soiagen.user.User;
  *
  * <p>Run with: ./gradlew run -PmainClass=examples.StartService
  *
+ * <p>Pass options with --args, e.g. --args='--executor=virtual'. See {@link ServerOptions}.
+ *
  * <p>Use 'CallService.java' to call this service from another process.
  */
 public class StartService {
@@ -38,11 +47,19 @@ public class StartService {
 
   /** Implementation of the service methods. */
   public static class ServiceImpl {
-    private final Map<Integer, User> idToUser = new HashMap<>();
+    private final UserStore users;
+    private final GetUserResponseCache getUserResponseCache;
+    private final AccessLog log;
+
+    public ServiceImpl(UserStore users, GetUserResponseCache getUserResponseCache, AccessLog log) {
+      this.users = users;
+      this.getUserResponseCache = getUserResponseCache;
+      this.log = log;
+    }
 
     public GetUserResponse getUser(GetUserRequest request, RequestMetadata metadata) {
       final int userId = request.userId();
-      final User user = idToUser.get(userId);
+      final User user = users.get(userId);
       return GetUserResponse.partialBuilder().setUser(Optional.ofNullable(user)).build();
     }
 
@@ -51,8 +68,9 @@ public class StartService {
       if (user.userId() == 0) {
         throw new IllegalArgumentException("invalid user id");
       }
-      System.out.println("Adding user: " + user);
-      idToUser.put(user.userId(), user);
+      log.debug(() -> "Adding user: " + user);
+      users.put(user);
+      getUserResponseCache.invalidate(user.userId());
 
       // Example of using request/response headers
       final String fooHeader = metadata.requestHeaders.getOrDefault("x-foo", "");
@@ -60,35 +78,143 @@ public class StartService {
 
       return AddUserResponse.DEFAULT;
     }
+
+    public GetUsersResponse getUsers(GetUsersRequest request, RequestMetadata metadata) {
+      final List<User> found = new ArrayList<>(request.userIds().size());
+      for (int userId : request.userIds()) {
+        final User user = users.get(userId);
+        if (user != null) {
+          found.add(user);
+        }
+      }
+      return GetUsersResponse.builder().setUsers(found).build();
+    }
+
+    public AddUsersResponse addUsers(AddUsersRequest request, RequestMetadata metadata) {
+      final List<User> newUsers = request.users();
+      // Validate everything first so that a bad request adds nobody.
+      for (User user : newUsers) {
+        if (user.userId() == 0) {
+          throw new IllegalArgumentException("invalid user id");
+        }
+      }
+      log.debug(() -> "Adding " + newUsers.size() + " users");
+      users.putAll(newUsers);
+      for (User user : newUsers) {
+        getUserResponseCache.invalidate(user.userId());
+      }
+      return AddUsersResponse.DEFAULT;
+    }
   }
 
-  public static void main(String[] args) throws IOException {
-    final ServiceImpl serviceImpl = new ServiceImpl();
+  private static UserStore openUserStore(ServerOptions options, AccessLog accessLog)
+      throws IOException {
+    if (options.dataDir == null) {
+      return new StripedUserStore();
+    }
+    final DurableUserStore userStore =
+        DurableUserStore.open(
+            options.dataDir, StripedUserStore::new, options.decodedUserCacheSize, accessLog);
+    System.out.println("Loaded " + userStore.size() + " users from " + options.dataDir);
+    userStore.scheduleSnapshots(Duration.ofSeconds(options.snapshotIntervalSeconds));
+    // Flush the pending log writes on Ctrl+C.
+    Runtime.getRuntime()
+        .addShutdownHook(
+            new Thread(
+                () -> {
+                  try {
+                    userStore.close();
+                  } catch (IOException e) {
+                    System.err.println("Error closing the user log: " + e.getMessage());
+                  }
+                }));
+    return userStore;
+  }
 
+  /**
+   * Builds the Soia service which dispatches the methods of {@code serviceImpl}.
+   *
+   * <p>GetUser and GetUsers run in the {@code reads} bulkhead, AddUser and AddUsers in the {@code
+   * writes} bulkhead, so that a burst of writes does not slow down the reads.
+   */
+  static Service<RequestMetadata> newSoiaService(
+      ServiceImpl serviceImpl, Bulkhead reads, Bulkhead writes) {
     // Build the Soia service with custom metadata
-    final var soiaService =
-        land.soia.service.Service.Companion.builder(
-                (httpHeaders) -> {
-                  Map<String, String> requestHeaders = new HashMap<>();
-                  httpHeaders
-                      .map()
-                      .forEach(
-                          (key, values) -> {
-                            if (!values.isEmpty()) {
-                              requestHeaders.put(key.toLowerCase(), values.get(0));
-                            }
-                          });
-                  Map<String, String> responseHeaders = new HashMap<>();
-                  return new RequestMetadata(requestHeaders, responseHeaders);
-                })
-            .addMethod(
-                Methods.ADD_USER, (req, meta, continuation) -> serviceImpl.addUser(req, meta))
-            .addMethod(
-                Methods.GET_USER, (req, meta, continuation) -> serviceImpl.getUser(req, meta))
-            .build();
+    return Service.Companion.builder(
+            (httpHeaders) -> {
+              Map<String, String> requestHeaders = new HashMap<>();
+              httpHeaders
+                  .map()
+                  .forEach(
+                      (key, values) -> {
+                        if (!values.isEmpty()) {
+                          requestHeaders.put(key.toLowerCase(), values.get(0));
+                        }
+                      });
+              Map<String, String> responseHeaders = new HashMap<>();
+              return new RequestMetadata(requestHeaders, responseHeaders);
+            })
+        .addMethod(
+            Methods.ADD_USER,
+            (req, meta, continuation) ->
+                writes.call(() -> serviceImpl.addUser(req, meta), continuation))
+        .addMethod(
+            Methods.GET_USER,
+            (req, meta, continuation) ->
+                reads.call(() -> serviceImpl.getUser(req, meta), continuation))
+        .addMethod(
+            Methods.ADD_USERS,
+            (req, meta, continuation) ->
+                writes.call(() -> serviceImpl.addUsers(req, meta), continuation))
+        .addMethod(
+            Methods.GET_USERS,
+            (req, meta, continuation) ->
+                reads.call(() -> serviceImpl.getUsers(req, meta), continuation))
+        .build();
+  }
+
+  /**
+   * The handler of the API endpoint, for the service built by {@link #newSoiaService}. It answers
+   * the calls rejected by a full bulkhead with a 503 response.
+   */
+  static ApiHandler newApiHandler(
+      ServiceImpl serviceImpl,
+      Bulkhead reads,
+      Bulkhead writes,
+      GetUserResponseCache getUserResponseCache,
+      int compressionMinBytes,
+      int maxRequestBytes,
+      AdmissionController admissionController,
+      AccessLog accessLog) {
+    // Requests are processed as coroutines on the shared Default dispatcher, so slow method
+    // implementations do not hold on to the server's threads.
+    return new ApiHandler(
+        newSoiaService(serviceImpl, reads, writes),
+        List.of(Methods.ADD_USER, Methods.GET_USER, Methods.ADD_USERS, Methods.GET_USERS),
+        getUserResponseCache,
+        compressionMinBytes,
+        maxRequestBytes,
+        admissionController,
+        accessLog,
+        Dispatchers.getDefault());
+  }
+
+  public static void main(String[] args) throws IOException {
+    final ServerOptions options = ServerOptions.parse(args);
+    final AccessLog accessLog = new AccessLog(options.logLevel);
+    // Write the buffered entries on Ctrl+C.
+    Runtime.getRuntime().addShutdownHook(new Thread(accessLog::close));
+    final GetUserResponseCache getUserResponseCache =
+        new GetUserResponseCache(options.responseCacheSize);
+    final ServiceImpl serviceImpl =
+        new ServiceImpl(openUserStore(options, accessLog), getUserResponseCache, accessLog);
 
     // Create HTTP server
-    final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 8787), 0);
+    final InetSocketAddress address = new InetSocketAddress("localhost", 8787);
+    final HttpTransport server =
+        options.listeners > 1
+            ? ShardedHttpTransport.bind(address, options.listeners, accessLog)
+            : options.transport.newTransport(address, accessLog);
 
     // Root handler
     server.createContext(
@@ -104,72 +230,35 @@ public class StartService {
     // API handler
     server.createContext(
         "/myapi",
-        exchange -> {
-          try {
-            System.out.println(
-                "Request: " + exchange.getRequestMethod() + " " + exchange.getRequestURI());
-
-            // Read request body
-            final String requestBody;
-            if ("POST".equals(exchange.getRequestMethod())) {
-              requestBody =
-                  new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
-            } else {
-              // For GET requests, use the query string
-              final String query = exchange.getRequestURI().getQuery();
-              requestBody = query != null ? URLDecoder.decode(query, StandardCharsets.UTF_8) : "";
-            }
-
-            // Convert headers to the format expected by Service
-            final java.net.http.HttpHeaders httpHeaders =
-                java.net.http.HttpHeaders.of(exchange.getRequestHeaders(), (name, value) -> true);
-
-            // Handle the request (using runBlocking since handleRequest is a suspend function)
-            final land.soia.service.Service.RawResponse rawResponse =
-                kotlinx.coroutines.BuildersKt.runBlocking(
-                    kotlin.coroutines.EmptyCoroutineContext.INSTANCE,
-                    (scope, continuation) ->
-                        soiaService.handleRequest(
-                            requestBody,
-                            httpHeaders,
-                            land.soia.UnrecognizedFieldsPolicy.KEEP,
-                            continuation));
-
-            // Send response
-            exchange.getResponseHeaders().set("Content-Type", rawResponse.contentType());
-
-            System.out.println("Raw response data: " + rawResponse.data());
-            final byte[] responseBytes = rawResponse.data().getBytes(StandardCharsets.UTF_8);
-            exchange.sendResponseHeaders(rawResponse.statusCode(), responseBytes.length);
-            try (OutputStream os = exchange.getResponseBody()) {
-              os.write(responseBytes);
-            }
-          } catch (IOException e) {
-            throw e;
-          } catch (InterruptedException e) {
-            System.err.println("Request interrupted: " + e.getMessage());
-            Thread.currentThread().interrupt();
-            final String errorResponse = "Request interrupted";
-            final byte[] errorBytes = errorResponse.getBytes(StandardCharsets.UTF_8);
-            exchange.sendResponseHeaders(500, errorBytes.length);
-            try (OutputStream os = exchange.getResponseBody()) {
-              os.write(errorBytes);
-            }
-          } catch (RuntimeException e) {
-            System.err.println("Error handling request: " + e.getMessage());
-            final String errorResponse = "Server error: " + e.getMessage();
-            final byte[] errorBytes = errorResponse.getBytes(StandardCharsets.UTF_8);
-            exchange.sendResponseHeaders(500, errorBytes.length);
-            try (OutputStream os = exchange.getResponseBody()) {
-              os.write(errorBytes);
-            }
-          }
-        });
+        newApiHandler(
+            serviceImpl,
+            new Bulkhead("reads", options.readThreads, options.bulkheadQueue),
+            new Bulkhead("writes", options.writeThreads, options.bulkheadQueue),
+            getUserResponseCache,
+            options.compressionMinBytes,
+            options.maxRequestBytes,
+            new AdmissionController(
+                options.maxInFlight,
+                Duration.ofMillis(options.targetLatencyMs),
+                Duration.ofMillis(options.maxQueueMs),
+                accessLog),
+            accessLog));
 
-    server.setExecutor(null); // creates a default executor
+    // A null executor (ExecutorMode.DEFAULT) makes the server use its built-in executor: the
+    // dispatcher thread for the JDK transport, the selector thread for the NIO transport.
+    if (server instanceof ShardedHttpTransport sharded) {
+      sharded.setExecutors(() -> options.executorMode.newExecutor(options.threads));
+    } else {
+      server.setExecutor(options.executorMode.newExecutor(options.threads));
+    }
+    server.setMaxRequestBodySize(options.maxRequestBytes);
     server.start();
     System.out.println("Serving at http://localhost:8787");
     System.out.println("API endpoint: http://localhost:8787/myapi");
+    System.out.println(
+        "Transport: " + options.transport.optionValue() + ", listeners: " + options.listeners);
+    System.out.println("Executor: " + options.executorMode.optionValue());
+    System.out.println("Log level: " + options.logLevel);
     System.out.println("Press Ctrl+C to stop the server");
   }
 }
@@ -0,0 +1,110 @@
+package examples;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import soiagen.user.User;
+
+/**
+ * A {@link UserStore} split into independently locked stripes. A user id always maps to the same
+ * stripe, so threads reading or writing different users rarely contend on the same lock.
+ *
+ * <p>Each stripe is an {@link IntUserMap}. Lookups first read it without taking the lock and only
+ * fall back to a read lock if a write to the same stripe happened in the meantime, so reads never
+ * write to shared memory in the common case.
+ */
+public final class StripedUserStore implements UserStore {
+  private final Stripe[] stripes;
+  private final int stripeShift;
+
+  /** Creates a store with a number of stripes proportional to the number of cores. */
+  public StripedUserStore() {
+    this(4 * Runtime.getRuntime().availableProcessors());
+  }
+
+  /** Creates a store with {@code minStripes} stripes, rounded up to the next power of two. */
+  public StripedUserStore(int minStripes) {
+    if (minStripes <= 0) {
+      throw new IllegalArgumentException("minStripes must be positive, got: " + minStripes);
+    }
+    final int stripeBits = 32 - Integer.numberOfLeadingZeros(minStripes - 1);
+    this.stripes = new Stripe[1 << stripeBits];
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new Stripe();
+    }
+    // A shift of 32 would be a no-op in Java, so a single stripe is special-cased in stripeFor().
+    this.stripeShift = 32 - stripeBits;
+  }
+
+  @Override
+  public User get(int userId) {
+    final Stripe stripe = stripeFor(userId);
+    long stamp = stripe.lock.tryOptimisticRead();
+    if (stamp != 0) {
+      final User user = stripe.idToUser.get(userId);
+      if (stripe.lock.validate(stamp)) {
+        return user;
+      }
+    }
+    stamp = stripe.lock.readLock();
+    try {
+      return stripe.idToUser.get(userId);
+    } finally {
+      stripe.lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public void put(User user) {
+    final Stripe stripe = stripeFor(user.userId());
+    final long stamp = stripe.lock.writeLock();
+    try {
+      stripe.idToUser.put(user);
+    } finally {
+      stripe.lock.unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public int size() {
+    int result = 0;
+    for (Stripe stripe : stripes) {
+      final long stamp = stripe.lock.readLock();
+      try {
+        result += stripe.idToUser.size();
+      } finally {
+        stripe.lock.unlockRead(stamp);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void forEach(Consumer<User> action) {
+    for (Stripe stripe : stripes) {
+      final User[] users;
+      final long stamp = stripe.lock.readLock();
+      try {
+        users = stripe.idToUser.toArray();
+      } finally {
+        stripe.lock.unlockRead(stamp);
+      }
+      // Call the action outside of the lock so it can take as long as it needs.
+      for (User user : users) {
+        action.accept(user);
+      }
+    }
+  }
+
+  private Stripe stripeFor(int userId) {
+    if (stripes.length == 1) {
+      return stripes[0];
+    }
+    // User ids are often sequential: spread them with a multiplicative hash and keep the high bits.
+    return stripes[(userId * 0x9E3779B9) >>> stripeShift];
+  }
+
+  private static final class Stripe {
+    final StampedLock lock = new StampedLock();
+    final IntUserMap idToUser = new IntUserMap();
+  }
+}
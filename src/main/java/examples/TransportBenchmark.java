@@ -0,0 +1,203 @@
+package examples;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import land.soia.service.ServiceClient;
+import org.HdrHistogram.Histogram;
+import soiagen.service.GetUserRequest;
+import soiagen.service.Methods;
+import soiagen.user.SubscriptionStatus;
+import soiagen.user.User;
+
+/**
+ * Compares the HTTP transports (see {@link TransportMode}): starts the service in-process on each
+ * of them in turn and measures the throughput and latency of GetUser calls.
+ *
+ * <p>Run with: ./gradlew run -PmainClass=examples.TransportBenchmark --args='--concurrency=64'
+ *
+ * <p>The load is closed-loop: each of the {@code --concurrency} threads sends its next request as
+ * soon as the previous one completes, so the throughput is the most the transport sustains at that
+ * concurrency. The response cache and admission control are disabled, the bulkheads unbounded
+ * and the access log turned off so that every call goes through the whole request path and the
+ * transport is what differs between runs. Use LoadGenerator against a running StartService to
+ * measure the latency at a fixed rate.
+ */
+public class TransportBenchmark {
+  // Latencies are recorded in microseconds, up to one hour.
+  private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+  private static final int USER_ID = 1;
+
+  /** Command-line options, passed as {@code --name=value}. */
+  private static final class Options {
+    /** {@code --transport}: the transport to measure, or all of them if null. */
+    TransportMode transport;
+
+    /** {@code --executor}: the executor the handlers run on, see {@link ExecutorMode}. */
+    ExecutorMode executorMode = ExecutorMode.FIXED;
+
+    /** {@code --threads}: pool size for the fixed and work-stealing executors. */
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    /** {@code --concurrency}: number of threads sending requests, each on its own connection. */
+    int concurrency = 32;
+
+    /** {@code --duration-seconds}: measured duration per transport, after the warmup. */
+    int durationSeconds = 10;
+
+    /** {@code --warmup-seconds}: duration of the load whose latencies are not recorded. */
+    int warmupSeconds = 3;
+
+    static Options parse(String[] args) {
+      final Options options = new Options();
+      for (String arg : args) {
+        final int equalsIndex = arg.indexOf('=');
+        if (!arg.startsWith("--") || equalsIndex < 0) {
+          throw new IllegalArgumentException("expected --name=value, got: " + arg);
+        }
+        final String name = arg.substring(2, equalsIndex);
+        final String value = arg.substring(equalsIndex + 1);
+        switch (name) {
+          case "transport" -> options.transport = TransportMode.parse(value);
+          case "executor" -> options.executorMode = ExecutorMode.parse(value);
+          case "threads" -> options.threads = parseInt(name, value, 1);
+          case "concurrency" -> options.concurrency = parseInt(name, value, 1);
+          case "duration-seconds" -> options.durationSeconds = parseInt(name, value, 1);
+          case "warmup-seconds" -> options.warmupSeconds = parseInt(name, value, 0);
+          default -> throw new IllegalArgumentException("unknown option: --" + name);
+        }
+      }
+      return options;
+    }
+
+    private static int parseInt(String name, String value, int min) {
+      final int result;
+      try {
+        result = Integer.parseInt(value);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("--" + name + " must be an integer, got: " + value);
+      }
+      if (result < min) {
+        throw new IllegalArgumentException(
+            "--" + name + " must be at least " + min + ", got: " + value);
+      }
+      return result;
+    }
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    final Options options = Options.parse(args);
+    System.out.printf(
+        "GetUser from %d threads for %ds (+%ds of warmup), executor: %s%n",
+        options.concurrency,
+        options.durationSeconds,
+        options.warmupSeconds,
+        options.executorMode.optionValue());
+    final List<TransportMode> transports =
+        options.transport != null ? List.of(options.transport) : List.of(TransportMode.values());
+    for (TransportMode transport : transports) {
+      run(transport, options);
+    }
+  }
+
+  private static void run(TransportMode transport, Options options)
+      throws IOException, InterruptedException {
+    final StripedUserStore userStore = new StripedUserStore();
+    userStore.put(
+        User.builder()
+            .setName("John Doe")
+            .setPets(List.of())
+            .setQuote("Life is like a box of chocolates.")
+            .setSubscriptionStatus(SubscriptionStatus.FREE)
+            .setUserId(USER_ID)
+            .build());
+    final GetUserResponseCache disabledCache = new GetUserResponseCache(0);
+    final AccessLog accessLog = new AccessLog(AccessLog.Level.OFF);
+    final StartService.ServiceImpl serviceImpl =
+        new StartService.ServiceImpl(userStore, disabledCache, accessLog);
+
+    final HttpTransport server =
+        transport.newTransport(new InetSocketAddress("localhost", 0), accessLog);
+    server.createContext(
+        "/myapi",
+        StartService.newApiHandler(
+            serviceImpl,
+            new Bulkhead("reads", 0, 0),
+            new Bulkhead("writes", 0, 0),
+            disabledCache,
+            Integer.MAX_VALUE,
+            Integer.MAX_VALUE,
+            new AdmissionController(0, Duration.ZERO, Duration.ZERO, accessLog),
+            accessLog));
+    final ExecutorService executor = options.executorMode.newExecutor(options.threads);
+    server.setExecutor(executor);
+    server.start();
+    // A client of its own, so that no connection is reused from the previous transport.
+    final ServiceClient serviceClient =
+        new ServiceClient(
+            "http://localhost:" + server.getAddress().getPort() + "/myapi",
+            Map.of(),
+            ServiceClients.newHttpClient(4));
+    final GetUserRequest request = GetUserRequest.builder().setUserId(USER_ID).build();
+
+    final long measureStartNanos =
+        System.nanoTime() + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+    final long endNanos = measureStartNanos + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+    final LongAdder errors = new LongAdder();
+    final List<Histogram> histograms = new ArrayList<>();
+    final List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < options.concurrency; i++) {
+      final Thread thread =
+          new Thread(
+              () -> {
+                final Histogram histogram = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+                synchronized (histograms) {
+                  histograms.add(histogram);
+                }
+                long startNanos;
+                while ((startNanos = System.nanoTime()) < endNanos) {
+                  try {
+                    serviceClient.invokeRemoteBlocking(
+                        Methods.GET_USER, request, Map.of(), Duration.ofSeconds(30));
+                  } catch (Exception e) {
+                    errors.increment();
+                  }
+                  if (startNanos >= measureStartNanos) {
+                    final long micros =
+                        TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+                    histogram.recordValue(Math.min(micros, HIGHEST_TRACKABLE_MICROS));
+                  }
+                }
+              },
+              "transport-benchmark-" + i);
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    server.stop();
+    if (executor != null) {
+      executor.shutdown();
+    }
+
+    final Histogram latency = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+    for (Histogram histogram : histograms) {
+      latency.add(histogram);
+    }
+    System.out.printf(
+        "%s: %.0f requests/s, %d errors, latency in ms: p50=%.3f  p99=%.3f  p99.9=%.3f%n",
+        transport.optionValue(),
+        latency.getTotalCount() / (double) options.durationSeconds,
+        errors.sum(),
+        latency.getValueAtPercentile(50) / 1000.0,
+        latency.getValueAtPercentile(99) / 1000.0,
+        latency.getValueAtPercentile(99.9) / 1000.0);
+  }
+}
@@ -0,0 +1,43 @@
+package examples;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/** The engine which serves HTTP. Selected at startup with {@code --transport=<mode>}. */
+public enum TransportMode {
+  /** The JDK's com.sun.net.httpserver.HttpServer. */
+  JDK,
+
+  /** {@link NioHttpTransport}, a selector-based HTTP/1.1 engine. */
+  NIO;
+
+  /**
+   * Creates a server bound to {@code address}.
+   *
+   * @param log where the NIO transport reports the errors of its selector thread
+   */
+  public HttpTransport newTransport(InetSocketAddress address, AccessLog log) throws IOException {
+    switch (this) {
+      case JDK:
+        return new JdkHttpTransport(address);
+      case NIO:
+        return new NioHttpTransport(address, log);
+      default:
+        throw new AssertionError("Unreachable");
+    }
+  }
+
+  /** Parses the value of the {@code --transport} option, e.g. "nio". */
+  public static TransportMode parse(String value) {
+    for (TransportMode mode : values()) {
+      if (mode.optionValue().equals(value)) {
+        return mode;
+      }
+    }
+    throw new IllegalArgumentException("unknown transport: " + value);
+  }
+
+  String optionValue() {
+    return name().toLowerCase();
+  }
+}
@@ -0,0 +1,77 @@
+package examples;
+
+import java.lang.ref.Reference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import soiagen.user.User;
+
+/**
+ * Compares the heap used by a {@code HashMap<Integer, User>} index and by an {@link IntUserMap}
+ * index over the same users. The users themselves are allocated before the first measurement, so
+ * only the overhead of the index is reported.
+ *
+ * <p>Run with: ./gradlew run -PmainClass=examples.UserIndexFootprint --args='10000000'
+ *
+ * <p>The argument is the number of users (default: 1000000). Measurements rely on System.gc()
+ * and are approximate; -XX:+UseSerialGC gives the most stable numbers.
+ */
+public class UserIndexFootprint {
+  public static void main(String[] args) {
+    final int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+    final User[] users = new User[userCount];
+    for (int i = 0; i < userCount; i++) {
+      users[i] = User.partialBuilder().setUserId(i + 1).build();
+    }
+
+    System.out.println("Users: " + userCount);
+    report(
+        "HashMap<Integer, User>",
+        userCount,
+        () -> {
+          final Map<Integer, User> index = new HashMap<>();
+          for (User user : users) {
+            index.put(user.userId(), user);
+          }
+          return index;
+        });
+    report(
+        "IntUserMap",
+        userCount,
+        () -> {
+          final IntUserMap index = new IntUserMap();
+          for (User user : users) {
+            index.put(user);
+          }
+          return index;
+        });
+
+    Reference.reachabilityFence(users);
+  }
+
+  private static void report(String name, int userCount, Supplier<Object> buildIndex) {
+    final long before = usedHeap();
+    final Object index = buildIndex.get();
+    final long after = usedHeap();
+    final long bytes = after - before;
+    System.out.printf(
+        "%-24s %,15d bytes  %6.1f bytes/user%n", name, bytes, (double) bytes / userCount);
+    Reference.reachabilityFence(index);
+  }
+
+  private static long usedHeap() {
+    final Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    // A single System.gc() may not collect everything, so repeat until the value stabilizes.
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      final long current = runtime.totalMemory() - runtime.freeMemory();
+      if (current >= used) {
+        break;
+      }
+      used = current;
+    }
+    return used;
+  }
+}
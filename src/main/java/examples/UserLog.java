@@ -0,0 +1,468 @@
+package examples;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import soiagen.user.User;
+
+/**
+ * Write-ahead log of added users.
+ *
+ * <p>The log is a sequence of segment files named {@code users-<sequence>.log} in a directory.
+ * Each record is framed as:
+ *
+ * <pre>
+ * [length: int32][crc32c: int32][User.SERIALIZER.toBytes(user): length bytes]
+ * </pre>
+ *
+ * <p>The users of an {@link #appendAll} call share a single record, so that a crash never leaves
+ * part of them in the log. Its length has the {@code BATCH_FLAG} bit set and its body is:
+ *
+ * <pre>
+ * [count: int32]([length: int32][User.SERIALIZER.toBytes(user): length bytes]){count}
+ * </pre>
+ *
+ * <p>Appends are group-committed: a single writer thread drains every record queued since the
+ * previous write, writes them with one call and makes them durable with one fsync. While an fsync
+ * is in progress, new records pile up in the queue and share the next one, so the number of fsyncs
+ * per second stays bounded no matter how many requests are in flight.
+ *
+ * <p>{@link #rotate} starts a new segment, after which the older segments can be replaced with a
+ * snapshot of the users and deleted (see {@link UserSnapshots}).
+ */
+public final class UserLog implements Closeable {
+  private static final String SEGMENT_PREFIX = "users-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final int HEADER_SIZE = 8;
+  // Anything larger is treated as a corrupted length.
+  private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+  // Set in the length of a record which holds several users.
+  private static final int BATCH_FLAG = 0x80000000;
+
+  private static class Entry {}
+
+  private static final class Record extends Entry {
+    final List<User> users;
+    final byte[] bytes;
+    final boolean batch;
+    final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+    Record(List<User> users, byte[] bytes, boolean batch) {
+      this.users = users;
+      this.bytes = bytes;
+      this.batch = batch;
+    }
+  }
+
+  private static final class Rotation extends Entry {
+    final CompletableFuture<Long> rotated = new CompletableFuture<>();
+  }
+
+  /** Queued by close() to stop the writer thread. */
+  private static final Entry CLOSE = new Entry();
+
+  private final Path directory;
+  private final Consumer<User> onDurable;
+  private final AccessLog log;
+  private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+  private final Thread writerThread;
+  // Only accessed by the writer thread, and by close() once the writer thread has stopped.
+  private FileChannel segment;
+  private long segmentSequence;
+  private long segmentRecords;
+  private ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+  private volatile IOException failure;
+  // Guarded by the queue. Once set, nothing is queued after CLOSE.
+  private boolean closed;
+
+  /**
+   * Opens a new segment in {@code directory} for appending. Existing segments are left untouched:
+   * replay them with {@link #replay} first.
+   *
+   * @param minSequence minimum sequence number of the new segment; the new segment always comes
+   *     after the existing ones
+   * @param onDurable called on the writer thread for every appended user once it is durable, before
+   *     the future returned by {@link #append} completes
+   * @param log where the exceptions thrown by {@code onDurable} are reported
+   */
+  public UserLog(Path directory, long minSequence, Consumer<User> onDurable, AccessLog log)
+      throws IOException {
+    this.directory = directory;
+    this.onDurable = onDurable;
+    this.log = log;
+    Files.createDirectories(directory);
+    final List<Path> segments = listSegments(directory);
+    this.segmentSequence =
+        segments.isEmpty()
+            ? minSequence
+            : Math.max(minSequence, sequenceOf(segments.get(segments.size() - 1)) + 1);
+    this.segment = openSegment(segmentSequence);
+    this.writerThread = new Thread(this::runWriter, "user-log-writer");
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  /**
+   * Queues the user for writing. The returned future completes once the record has been fsynced,
+   * or completes exceptionally with:
+   *
+   * <ul>
+   *   <li>an UncheckedIOException if the log could not be written
+   *   <li>an IllegalArgumentException if the user is too large to be replayed
+   *   <li>an IllegalStateException if the log is closed
+   *   <li>the exception thrown by {@code onDurable}, if any: the user is durable nonetheless
+   * </ul>
+   */
+  public CompletableFuture<Void> append(User user) {
+    return append(new Record(List.of(user), User.SERIALIZER.toBytes(user).toByteArray(), false));
+  }
+
+  /**
+   * Queues the users for writing as a single record: after a crash, either all of them or none are
+   * replayed. The returned future completes like the one returned by {@link #append}, once all the
+   * users are durable; if it completes with an UncheckedIOException or IllegalArgumentException,
+   * none of them was written.
+   */
+  public CompletableFuture<Void> appendAll(Collection<User> users) {
+    final List<User> list = List.copyOf(users);
+    if (list.isEmpty()) {
+      return CompletableFuture.completedFuture(null);
+    }
+    final List<byte[]> encoded = new ArrayList<>(list.size());
+    long size = 4;
+    for (User user : list) {
+      final byte[] bytes = User.SERIALIZER.toBytes(user).toByteArray();
+      encoded.add(bytes);
+      size += 4 + bytes.length;
+    }
+    if (size > MAX_RECORD_SIZE) {
+      final Record record = new Record(list, new byte[0], true);
+      record.durable.completeExceptionally(
+          new IllegalArgumentException(
+              "batch record of " + size + " bytes exceeds " + MAX_RECORD_SIZE));
+      return record.durable;
+    }
+    final ByteBuffer body = ByteBuffer.allocate((int) size).putInt(list.size());
+    for (byte[] bytes : encoded) {
+      body.putInt(bytes.length).put(bytes);
+    }
+    return append(new Record(list, body.array(), true));
+  }
+
+  private CompletableFuture<Void> append(Record record) {
+    if (record.bytes.length > MAX_RECORD_SIZE) {
+      // replay() would take the record for a corrupted one and drop the rest of the segment.
+      record.durable.completeExceptionally(
+          new IllegalArgumentException(
+              "user record of " + record.bytes.length + " bytes exceeds " + MAX_RECORD_SIZE));
+    } else if (failure != null) {
+      record.durable.completeExceptionally(new UncheckedIOException(failure));
+    } else if (!enqueue(record)) {
+      record.durable.completeExceptionally(new IllegalStateException("user log is closed"));
+    }
+    return record.durable;
+  }
+
+  /**
+   * Starts a new segment for the following appends. The returned future completes with the sequence
+   * number of the new segment once every user appended before the call is durable and has been
+   * passed to {@code onDurable}. If nothing was appended to the current segment, no new segment is
+   * started and the future completes with the sequence number of the current segment.
+   */
+  public CompletableFuture<Long> rotate() {
+    final Rotation rotation = new Rotation();
+    if (!enqueue(rotation)) {
+      rotation.rotated.completeExceptionally(new IllegalStateException("user log is closed"));
+    }
+    return rotation.rotated;
+  }
+
+  /** Returns false if the log is closed. */
+  private boolean enqueue(Entry entry) {
+    synchronized (queue) {
+      if (closed) {
+        return false;
+      }
+      queue.add(entry);
+      return true;
+    }
+  }
+
+  /**
+   * Writes all the queued records, then stops the writer thread and closes the segment. Later
+   * appends fail.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (queue) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      queue.add(CLOSE);
+    }
+    try {
+      writerThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    segment.close();
+  }
+
+  /**
+   * Reads the segments in {@code directory} with a sequence number greater than or equal to {@code
+   * fromSequence}, oldest first, and passes every user to {@code action}. A truncated or corrupted
+   * record, e.g. one that was being written when the process crashed, ends the replay of its
+   * segment, and is reported to {@code log}.
+   */
+  public static void replay(
+      Path directory, long fromSequence, Consumer<User> action, AccessLog log) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+    for (Path segment : listSegments(directory)) {
+      if (sequenceOf(segment) >= fromSequence) {
+        replaySegment(segment, action, log);
+      }
+    }
+  }
+
+  /** Deletes the segments in {@code directory} with a sequence number less than {@code sequence}. */
+  public static void deleteSegmentsBefore(Path directory, long sequence) throws IOException {
+    for (Path segment : listSegments(directory)) {
+      if (sequenceOf(segment) < sequence) {
+        Files.delete(segment);
+      }
+    }
+  }
+
+  private static void replaySegment(Path path, Consumer<User> action, AccessLog log)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      final CRC32C crc = new CRC32C();
+      while (true) {
+        header.clear();
+        if (!readFully(channel, header)) {
+          return;
+        }
+        final boolean batch = (header.getInt(0) & BATCH_FLAG) != 0;
+        final int length = header.getInt(0) & ~BATCH_FLAG;
+        final int expectedCrc = header.getInt(4);
+        if (length > MAX_RECORD_SIZE) {
+          log.error("Corrupted record length in " + path + ", skipping the rest");
+          return;
+        }
+        final ByteBuffer body = ByteBuffer.allocate(length);
+        if (!readFully(channel, body)) {
+          log.error("Truncated record in " + path + ", skipping it");
+          return;
+        }
+        crc.reset();
+        crc.update(body.array(), 0, length);
+        if ((int) crc.getValue() != expectedCrc) {
+          log.error("Corrupted record in " + path + ", skipping the rest");
+          return;
+        }
+        if (!batch) {
+          action.accept(User.SERIALIZER.fromBytes(body.array()));
+          continue;
+        }
+        body.flip();
+        final int count = body.getInt();
+        for (int i = 0; i < count; i++) {
+          final byte[] bytes = new byte[body.getInt()];
+          body.get(bytes);
+          action.accept(User.SERIALIZER.fromBytes(bytes));
+        }
+      }
+    }
+  }
+
+  /** Returns false if the end of the channel was reached before the buffer was filled. */
+  private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void runWriter() {
+    final List<Entry> entries = new ArrayList<>();
+    final List<Record> batch = new ArrayList<>();
+    while (true) {
+      try {
+        entries.add(queue.take());
+      } catch (InterruptedException e) {
+        return;
+      }
+      queue.drainTo(entries);
+      for (Entry entry : entries) {
+        if (entry instanceof Record record) {
+          batch.add(record);
+          continue;
+        }
+        // Control entries apply after all the records queued before them.
+        writeBatch(batch);
+        batch.clear();
+        if (entry == CLOSE) {
+          failQueued(entries.subList(entries.indexOf(CLOSE) + 1, entries.size()));
+          return;
+        } else if (entry instanceof Rotation rotation) {
+          rotate(rotation);
+        }
+      }
+      writeBatch(batch);
+      batch.clear();
+      entries.clear();
+    }
+  }
+
+  /** Fails the entries which come after CLOSE. None is expected: close() queues CLOSE last. */
+  private void failQueued(List<Entry> entries) {
+    final List<Entry> remaining = new ArrayList<>(entries);
+    queue.drainTo(remaining);
+    final IllegalStateException closedException = new IllegalStateException("user log is closed");
+    for (Entry entry : remaining) {
+      if (entry instanceof Record record) {
+        record.durable.completeExceptionally(closedException);
+      } else if (entry instanceof Rotation rotation) {
+        rotation.rotated.completeExceptionally(closedException);
+      }
+    }
+  }
+
+  private void rotate(Rotation rotation) {
+    if (failure != null) {
+      rotation.rotated.completeExceptionally(new UncheckedIOException(failure));
+      return;
+    }
+    if (segmentRecords == 0) {
+      rotation.rotated.complete(segmentSequence);
+      return;
+    }
+    try {
+      segment.close();
+      segment = openSegment(segmentSequence + 1);
+    } catch (IOException e) {
+      failure = e;
+      rotation.rotated.completeExceptionally(new UncheckedIOException(e));
+      return;
+    }
+    segmentSequence++;
+    segmentRecords = 0;
+    rotation.rotated.complete(segmentSequence);
+  }
+
+  private void writeBatch(List<Record> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    try {
+      if (failure != null) {
+        throw failure;
+      }
+      final CRC32C crc = new CRC32C();
+      for (Record record : batch) {
+        ensureCapacity(HEADER_SIZE + record.bytes.length);
+        crc.reset();
+        crc.update(record.bytes);
+        final int length = record.batch ? record.bytes.length | BATCH_FLAG : record.bytes.length;
+        buffer.putInt(length).putInt((int) crc.getValue()).put(record.bytes);
+      }
+      flushBuffer();
+      segment.force(false);
+      segmentRecords += batch.size();
+    } catch (IOException e) {
+      // After a failed write or fsync, the state of the file is unknown: fail all further appends.
+      failure = e;
+      for (Record record : batch) {
+        record.durable.completeExceptionally(new UncheckedIOException(e));
+      }
+      return;
+    }
+    for (Record record : batch) {
+      // An exception must neither kill the writer thread nor leave the caller waiting forever.
+      RuntimeException error = null;
+      for (User user : record.users) {
+        try {
+          onDurable.accept(user);
+        } catch (RuntimeException e) {
+          log.error("Error applying a durable user: " + e.getMessage());
+          error = e;
+        }
+      }
+      if (error != null) {
+        record.durable.completeExceptionally(error);
+      } else {
+        record.durable.complete(null);
+      }
+    }
+  }
+
+  private void ensureCapacity(int recordSize) throws IOException {
+    if (buffer.remaining() >= recordSize) {
+      return;
+    }
+    flushBuffer();
+    if (buffer.capacity() < recordSize) {
+      buffer = ByteBuffer.allocateDirect(recordSize);
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      segment.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  private FileChannel openSegment(long sequence) throws IOException {
+    final Path path =
+        directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    final FileChannel channel =
+        FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    // Make the new directory entry durable, otherwise the whole segment could be lost on a crash.
+    try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+      dir.force(true);
+    }
+    return channel;
+  }
+
+  /** Returns the segments in {@code directory}, oldest first. */
+  static List<Path> listSegments(Path directory) throws IOException {
+    try (Stream<Path> paths = Files.list(directory)) {
+      return paths
+          .filter(
+              path -> {
+                final String name = path.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+              })
+          .sorted()
+          .toList();
+    }
+  }
+
+  static long sequenceOf(Path segment) {
+    final String name = segment.getFileName().toString();
+    return Long.parseLong(
+        name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+  }
+}
@@ -0,0 +1,214 @@
+package examples;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import soiagen.user.User;
+import soiagen.user.UserRegistry;
+
+/**
+ * Snapshots of all the users, stored next to the {@link UserLog} segments.
+ *
+ * <p>A snapshot is a file named {@code users-<sequence>.snapshot}, in the indexed format read by
+ * {@link MappedUserSnapshot}. It contains every user appended to the log segments with a sequence
+ * number less than {@code sequence}, so these segments can be deleted and only the following ones
+ * need to be replayed on startup.
+ */
+public final class UserSnapshots {
+  private static final String SNAPSHOT_PREFIX = "users-";
+  private static final String SNAPSHOT_SUFFIX = ".snapshot";
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private UserSnapshots() {}
+
+  /**
+   * Writes a snapshot of {@code users} covering the log segments before {@code sequence}, then
+   * deletes these segments and the older snapshots.
+   *
+   * <p>The snapshot is written to a temporary file which is moved into place once fsynced, so a
+   * crash at any point leaves either the previous snapshot or the new one.
+   */
+  public static void write(Path directory, long sequence, UserStore users) throws IOException {
+    write(directory, sequence, users, null);
+  }
+
+  /**
+   * Same as {@link #write(Path, long, UserStore)}, for the users of {@code users} and the users
+   * of {@code base} whose id is not in {@code users}. The records of the latter are copied as they
+   * are, without being decoded and encoded again.
+   */
+  public static void write(Path directory, long sequence, UserStore users, MappedUserSnapshot base)
+      throws IOException {
+    final int[] userIds = sortedUserIds(users);
+    final int baseSize = base != null ? base.size() : 0;
+    // The index, filled in as the records are written.
+    final int capacity = userIds.length + baseSize;
+    final int[] indexUserIds = new int[capacity];
+    final long[] offsets = new long[capacity];
+    final int[] lengths = new int[capacity];
+    int size = 0;
+
+    final Path path = snapshotPath(directory, sequence);
+    final Path tempPath = path.resolveSibling(path.getFileName() + TEMP_SUFFIX);
+    try (FileChannel channel =
+        FileChannel.open(
+            tempPath,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      final DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+      // Data section, in user id order. Each record is encoded, or copied from the base snapshot,
+      // and written before the next one: only the index is kept in memory.
+      long offset = 0;
+      int maxRecordLength = 0;
+      int next = 0;
+      int baseEntry = 0;
+      while (next < userIds.length || baseEntry < baseSize) {
+        final int userId;
+        final byte[] bytes;
+        if (baseEntry == baseSize
+            || (next < userIds.length && userIds[next] <= base.userIdAt(baseEntry))) {
+          userId = userIds[next++];
+          if (baseEntry < baseSize && base.userIdAt(baseEntry) == userId) {
+            // Replaced since the base snapshot.
+            baseEntry++;
+          }
+          bytes = User.SERIALIZER.toBytes(users.get(userId)).toByteArray();
+        } else {
+          userId = base.userIdAt(baseEntry);
+          bytes = base.encodedAt(baseEntry++);
+        }
+        out.write(bytes);
+        indexUserIds[size] = userId;
+        offsets[size] = offset;
+        lengths[size] = bytes.length;
+        size++;
+        offset += bytes.length;
+        maxRecordLength = Math.max(maxRecordLength, bytes.length);
+      }
+      // Index section, sorted by user id.
+      for (int i = 0; i < size; i++) {
+        out.writeInt(indexUserIds[i]);
+        out.writeLong(offsets[i]);
+        out.writeInt(lengths[i]);
+      }
+      // Footer.
+      out.writeLong(offset);
+      out.writeInt(size);
+      out.writeInt(maxRecordLength);
+      out.writeInt(MappedUserSnapshot.MAGIC);
+      out.flush();
+      channel.force(true);
+    }
+    Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE);
+    try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+      dir.force(true);
+    }
+
+    for (Path snapshot : listSnapshots(directory)) {
+      if (sequenceOf(snapshot) < sequence) {
+        Files.delete(snapshot);
+      }
+    }
+    UserLog.deleteSegmentsBefore(directory, sequence);
+  }
+
+  /**
+   * Maps the latest snapshot in {@code directory}, or returns null if there is none. Deletes the
+   * temporary files left by a crash in the middle of {@link #write}.
+   *
+   * <p>A snapshot in the older format, a serialized {@link UserRegistry}, is first converted in
+   * place to the indexed format. Both are reported to {@code log}.
+   */
+  public static MappedUserSnapshot openLatest(Path directory, AccessLog log) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return null;
+    }
+    deleteTempFiles(directory, log);
+    final List<Path> snapshots = listSnapshots(directory);
+    if (snapshots.isEmpty()) {
+      return null;
+    }
+    final Path latest = snapshots.get(snapshots.size() - 1);
+    final long sequence = sequenceOf(latest);
+    if (!MappedUserSnapshot.isIndexed(latest)) {
+      log.error("Converting " + latest + " to the indexed snapshot format");
+      final UserRegistry registry = UserRegistry.SERIALIZER.fromBytes(Files.readAllBytes(latest));
+      final UserStore users = new StripedUserStore();
+      registry.users().forEach(users::put);
+      // Replaces the file atomically: a crash leaves either format, and the next start converts.
+      write(directory, sequence, users);
+    }
+    return MappedUserSnapshot.open(latest, sequence);
+  }
+
+  /** Returns the ids of the users in {@code users}, sorted. */
+  private static int[] sortedUserIds(UserStore users) {
+    final int[][] userIds = {new int[Math.max(16, users.size())]};
+    final int[] size = {0};
+    users.forEach(
+        user -> {
+          if (size[0] == userIds[0].length) {
+            userIds[0] = Arrays.copyOf(userIds[0], size[0] * 2);
+          }
+          userIds[0][size[0]++] = user.userId();
+        });
+    final int[] result = Arrays.copyOf(userIds[0], size[0]);
+    Arrays.sort(result);
+    return result;
+  }
+
+  private static void deleteTempFiles(Path directory, AccessLog log) throws IOException {
+    final List<Path> tempFiles;
+    try (Stream<Path> paths = Files.list(directory)) {
+      tempFiles =
+          paths
+              .filter(
+                  path -> {
+                    final String name = path.getFileName().toString();
+                    return name.startsWith(SNAPSHOT_PREFIX)
+                        && name.endsWith(SNAPSHOT_SUFFIX + TEMP_SUFFIX);
+                  })
+              .toList();
+    }
+    for (Path tempFile : tempFiles) {
+      log.error("Deleting incomplete snapshot " + tempFile);
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  private static Path snapshotPath(Path directory, long sequence) {
+    return directory.resolve(
+        String.format("%s%016d%s", SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX));
+  }
+
+  /** Returns the snapshots in {@code directory}, oldest first. */
+  private static List<Path> listSnapshots(Path directory) throws IOException {
+    try (Stream<Path> paths = Files.list(directory)) {
+      return paths
+          .filter(
+              path -> {
+                final String name = path.getFileName().toString();
+                return name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX);
+              })
+          .sorted()
+          .toList();
+    }
+  }
+
+  private static long sequenceOf(Path snapshot) {
+    final String name = snapshot.getFileName().toString();
+    return Long.parseLong(
+        name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()));
+  }
+}
@@ -0,0 +1,30 @@
+package examples;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+import soiagen.user.User;
+
+/** Users indexed by user id. Implementations must be safe to use from multiple threads. */
+public interface UserStore {
+  /** Returns the user with the given id, or null if there is none. */
+  User get(int userId);
+
+  /** Adds the user, or replaces the user with the same id. */
+  void put(User user);
+
+  /** Adds or replaces all the users. By default, calls put() on each user. */
+  default void putAll(Collection<User> users) {
+    for (User user : users) {
+      put(user);
+    }
+  }
+
+  /** Returns the number of users in the store. */
+  int size();
+
+  /**
+   * Calls {@code action} on every user in the store. Users added or replaced during the iteration
+   * may or may not be visited.
+   */
+  void forEach(Consumer<User> action);
+}
@@ -0,0 +1,138 @@
+package examples;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads and writes UTF-8 HTTP bodies with as few copies as possible.
+ *
+ * <p>Soia's Service takes and returns the body as a String, so one String per request and per
+ * response is unavoidable. This class avoids the rest: InputStream.readAllBytes() reads into a
+ * chain of buffers and then copies them into the final array, and String.getBytes() materializes
+ * the whole encoded response before it is written. Here, the request body is read into a pooled
+ * buffer (or a buffer of exactly Content-Length bytes) and decoded directly, and the response is
+ * encoded chunk by chunk into a pooled buffer as it is written.
+ */
+public final class Utf8Bodies {
+  private static final int BUFFER_SIZE = 16 * 1024;
+  private static final int MAX_POOLED_BUFFERS = 256;
+
+  private static final BlockingQueue<byte[]> pool = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+  private Utf8Bodies() {}
+
+  /**
+   * Reads {@code in} until the end and decodes it as UTF-8.
+   *
+   * @param contentLength the value of the Content-Length header, or -1 if unknown
+   */
+  public static String read(InputStream in, long contentLength) throws IOException {
+    final byte[] pooled = acquire();
+    try {
+      byte[] buffer =
+          contentLength > pooled.length && contentLength < Integer.MAX_VALUE
+              ? new byte[(int) contentLength]
+              : pooled;
+      int length = 0;
+      while (true) {
+        if (length == buffer.length) {
+          // Only grow if there is more to read: with an accurate Content-Length, this is the end.
+          final int next = in.read();
+          if (next < 0) {
+            break;
+          }
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+          buffer[length++] = (byte) next;
+        }
+        final int read = in.read(buffer, length, buffer.length - length);
+        if (read < 0) {
+          break;
+        }
+        length += read;
+      }
+      return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    } finally {
+      release(pooled);
+    }
+  }
+
+  /** Returns the number of bytes {@link #write} writes for {@code string}. */
+  public static long encodedLength(String string) {
+    final int length = string.length();
+    // Plain ASCII needs no further work.
+    long result = length;
+    for (int i = 0; i < length; i++) {
+      final char c = string.charAt(i);
+      if (c < 0x80) {
+        continue;
+      } else if (c < 0x800) {
+        result += 1;
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < length
+          && Character.isLowSurrogate(string.charAt(i + 1))) {
+        // 4 bytes for 2 chars.
+        result += 2;
+        i++;
+      } else if (!Character.isSurrogate(c)) {
+        result += 2;
+      }
+      // An unpaired surrogate is written as '?', like String.getBytes() does.
+    }
+    return result;
+  }
+
+  /** Encodes {@code string} as UTF-8 into {@code out}, through a pooled buffer. */
+  public static void write(OutputStream out, String string) throws IOException {
+    final byte[] buffer = acquire();
+    try {
+      int position = 0;
+      final int length = string.length();
+      for (int i = 0; i < length; i++) {
+        // Flush when the longest encoding of a code point may not fit.
+        if (position > buffer.length - 4) {
+          out.write(buffer, 0, position);
+          position = 0;
+        }
+        final char c = string.charAt(i);
+        if (c < 0x80) {
+          buffer[position++] = (byte) c;
+        } else if (c < 0x800) {
+          buffer[position++] = (byte) (0xC0 | (c >> 6));
+          buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)
+            && i + 1 < length
+            && Character.isLowSurrogate(string.charAt(i + 1))) {
+          final int codePoint = Character.toCodePoint(c, string.charAt(++i));
+          buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+          buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+          buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+          buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+          buffer[position++] = '?';
+        } else {
+          buffer[position++] = (byte) (0xE0 | (c >> 12));
+          buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+          buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+      }
+      out.write(buffer, 0, position);
+    } finally {
+      release(buffer);
+    }
+  }
+
+  private static byte[] acquire() {
+    final byte[] buffer = pool.poll();
+    return buffer != null ? buffer : new byte[BUFFER_SIZE];
+  }
+
+  private static void release(byte[] buffer) {
+    // Drops the buffer if the pool is full.
+    pool.offer(buffer);
+  }
+}
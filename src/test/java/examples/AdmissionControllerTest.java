@@ -0,0 +1,130 @@
+package examples;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public final class AdmissionControllerTest {
+  private static final AccessLog LOG = new AccessLog(AccessLog.Level.OFF);
+  private static final Duration LONG = Duration.ofHours(1);
+
+  @Test
+  public void admit_withMaxLimitZero_admitsEverything() {
+    try (AdmissionController controller =
+        new AdmissionController(0, Duration.ZERO, Duration.ZERO, LOG)) {
+      final List<AdmissionController.Permit> permits = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        controller.admit(permits::add, () -> {});
+      }
+
+      assertThat(permits).hasSize(100);
+      assertThat(controller.rejectedCount()).isEqualTo(0L);
+    }
+  }
+
+  @Test
+  public void admit_queuesRequestsBeyondLimitUntilRelease() {
+    // The initial limit is min(maxLimit, 4 * cores): 2 here.
+    try (AdmissionController controller = new AdmissionController(2, LONG, LONG, LOG)) {
+      final List<AdmissionController.Permit> permits = new ArrayList<>();
+      controller.admit(permits::add, () -> {});
+      controller.admit(permits::add, () -> {});
+      controller.admit(permits::add, () -> {});
+
+      assertThat(permits).hasSize(2);
+      assertThat(controller.inFlightCount()).isEqualTo(2);
+      assertThat(controller.queuedCount()).isEqualTo(1);
+
+      permits.get(0).release();
+
+      assertThat(permits).hasSize(3);
+      assertThat(controller.inFlightCount()).isEqualTo(2);
+      assertThat(controller.queuedCount()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void admit_rejectsRightAwayWhenQueueIsFull() {
+    try (AdmissionController controller = new AdmissionController(2, LONG, LONG, LOG)) {
+      final AtomicInteger rejected = new AtomicInteger();
+      for (int i = 0; i < 5; i++) {
+        controller.admit(permit -> {}, rejected::incrementAndGet);
+      }
+
+      // 2 in flight, 2 waiting: the fifth request is rejected on this thread.
+      assertThat(rejected.get()).isEqualTo(1);
+      assertThat(controller.queuedCount()).isEqualTo(2);
+      assertThat(controller.rejectedCount()).isEqualTo(1L);
+    }
+  }
+
+  @Test
+  public void admit_rejectsRequestWhichWaitsTooLong() throws InterruptedException {
+    try (AdmissionController controller =
+        new AdmissionController(1, LONG, Duration.ofMillis(10), LOG)) {
+      final CountDownLatch rejected = new CountDownLatch(1);
+      final List<AdmissionController.Permit> permits = new ArrayList<>();
+      controller.admit(permits::add, () -> {});
+
+      controller.admit(permits::add, rejected::countDown);
+
+      assertThat(rejected.await(5, TimeUnit.SECONDS)).isTrue();
+      assertThat(controller.queuedCount()).isEqualTo(0);
+      assertThat(controller.rejectedCount()).isEqualTo(1L);
+      // Releasing the first permit no longer admits the expired request.
+      permits.get(0).release();
+      assertThat(permits).hasSize(1);
+    }
+  }
+
+  @Test
+  public void release_ofSlowRequest_lowersLimitMultiplicatively() throws InterruptedException {
+    // Any latency is above a target of 0.
+    try (AdmissionController controller =
+        new AdmissionController(4, Duration.ZERO, LONG, LOG)) {
+      final List<AdmissionController.Permit> permits = new ArrayList<>();
+      controller.admit(permits::add, () -> {});
+      assertThat(controller.limit()).isEqualTo(4);
+      // Longer than the resolution of System.nanoTime().
+      Thread.sleep(1);
+
+      permits.get(0).release();
+
+      // 4 * 0.9.
+      assertThat(controller.limit()).isEqualTo(3);
+      // Releasing the same permit again has no effect.
+      permits.get(0).release();
+      assertThat(controller.limit()).isEqualTo(3);
+      assertThat(controller.inFlightCount()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void release_ofFastRequest_raisesLimitOnlyWhileItIsReached() {
+    try (AdmissionController controller = new AdmissionController(100_000, LONG, LONG, LOG)) {
+      final int initialLimit = controller.limit();
+      final List<AdmissionController.Permit> permits = new ArrayList<>();
+      controller.admit(permits::add, () -> {});
+      permits.remove(0).release();
+      assertThat(controller.limit()).isEqualTo(initialLimit);
+
+      for (int i = 0; i < initialLimit; i++) {
+        controller.admit(permits::add, () -> {});
+      }
+      // Each release at the limit adds 1/limit: about one per window of limit requests.
+      for (int i = 0; i < 2 * initialLimit; i++) {
+        permits.remove(0).release();
+        controller.admit(permits::add, () -> {});
+      }
+
+      assertThat(controller.limit()).isGreaterThan(initialLimit);
+      assertThat(controller.limit()).isAtMost(initialLimit + 2);
+    }
+  }
+}
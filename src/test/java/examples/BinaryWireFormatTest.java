@@ -0,0 +1,33 @@
+package examples;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+public final class BinaryWireFormatTest {
+  @Test
+  public void isContentType_ignoresParametersAndCase() {
+    assertThat(BinaryWireFormat.isContentType("application/x-soia-binary")).isTrue();
+    assertThat(BinaryWireFormat.isContentType(" Application/X-Soia-Binary; charset=x")).isTrue();
+    assertThat(BinaryWireFormat.isContentType("application/json")).isFalse();
+    assertThat(BinaryWireFormat.isContentType(null)).isFalse();
+  }
+
+  @Test
+  public void isAccepted_requiresPositiveQValue() {
+    assertThat(BinaryWireFormat.isAccepted("application/x-soia-binary")).isTrue();
+    assertThat(BinaryWireFormat.isAccepted("application/json, application/x-soia-binary;q=0.5"))
+        .isTrue();
+    assertThat(BinaryWireFormat.isAccepted("application/x-soia-binary; q=0")).isFalse();
+    assertThat(BinaryWireFormat.isAccepted("application/x-soia-binary;q=0.0")).isFalse();
+    // An invalid q-value counts as 1.
+    assertThat(BinaryWireFormat.isAccepted("application/x-soia-binary;q=abc")).isTrue();
+  }
+
+  @Test
+  public void isAccepted_ignoresWildcards() {
+    assertThat(BinaryWireFormat.isAccepted("*/*")).isFalse();
+    assertThat(BinaryWireFormat.isAccepted("application/*")).isFalse();
+    assertThat(BinaryWireFormat.isAccepted(null)).isFalse();
+  }
+}
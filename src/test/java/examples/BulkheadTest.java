@@ -0,0 +1,95 @@
+package examples;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import kotlin.coroutines.CoroutineContext;
+import kotlin.coroutines.EmptyCoroutineContext;
+import kotlinx.coroutines.CoroutineScope;
+import kotlinx.coroutines.CoroutineScopeKt;
+import kotlinx.coroutines.CoroutineStart;
+import kotlinx.coroutines.Dispatchers;
+import kotlinx.coroutines.SupervisorKt;
+import kotlinx.coroutines.future.FutureKt;
+import org.junit.jupiter.api.Test;
+
+public final class BulkheadTest {
+  private final CoroutineScope scope =
+      CoroutineScopeKt.CoroutineScope(
+          SupervisorKt.SupervisorJob(null).plus(Dispatchers.getDefault()));
+
+  @Test
+  public void call_rejectsCallsBeyondThreadsAndQueue() throws Exception {
+    final CountDownLatch unblock = new CountDownLatch(1);
+    final CountDownLatch running = new CountDownLatch(1);
+    try (Bulkhead bulkhead = new Bulkhead("test", 1, 1)) {
+      final Supplier<String> blocking =
+          () -> {
+            running.countDown();
+            await(unblock);
+            return "done";
+          };
+      final CompletableFuture<String> first = launch(bulkhead, blocking, new Bulkhead.Rejection());
+      assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+      final CompletableFuture<String> queued = launch(bulkhead, () -> "queued", null);
+      final Bulkhead.Rejection rejection = new Bulkhead.Rejection();
+
+      final CompletableFuture<String> rejected = launch(bulkhead, () -> "rejected", rejection);
+
+      final ExecutionException e = assertThrows(ExecutionException.class, rejected::get);
+      assertThat(e.getCause()).isInstanceOf(Bulkhead.OverloadedException.class);
+      assertThat(rejection.exception()).isSameInstanceAs(e.getCause());
+      unblock.countDown();
+      assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("done");
+      assertThat(queued.get(5, TimeUnit.SECONDS)).isEqualTo("queued");
+    }
+  }
+
+  @Test
+  public void call_withoutQueue_acceptsCallsWhileThreadsAreFree() throws Exception {
+    try (Bulkhead bulkhead = new Bulkhead("test", 2, 0)) {
+      for (int i = 0; i < 10; i++) {
+        final Bulkhead.Rejection rejection = new Bulkhead.Rejection();
+        final int value = i;
+
+        assertThat(launch(bulkhead, () -> value, rejection).get(5, TimeUnit.SECONDS))
+            .isEqualTo(value);
+        assertThat(rejection.exception()).isNull();
+      }
+    }
+  }
+
+  @Test
+  public void call_withoutThreads_runsOnSharedPool() throws Exception {
+    try (Bulkhead bulkhead = new Bulkhead("test", 0, 0)) {
+      final String threadName =
+          launch(bulkhead, () -> Thread.currentThread().getName(), null).get(5, TimeUnit.SECONDS);
+
+      assertThat(threadName).doesNotContain("bulkhead-test-");
+    }
+  }
+
+  /** Runs {@code call} through the bulkhead in a coroutine, with {@code rejection} if not null. */
+  private <T> CompletableFuture<T> launch(
+      Bulkhead bulkhead, Supplier<T> call, Bulkhead.Rejection rejection) {
+    final CoroutineContext context = rejection != null ? rejection : EmptyCoroutineContext.INSTANCE;
+    return FutureKt.future(
+        scope,
+        context,
+        CoroutineStart.DEFAULT,
+        (coroutineScope, continuation) -> bulkhead.call(call, continuation));
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package examples;
+
+import static com.google.common.truth.Truth.assertThat;
+import static examples.UserLogTest.user;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public final class DurableUserStoreTest {
+  private static final AccessLog LOG = new AccessLog(AccessLog.Level.OFF);
+
+  @TempDir Path directory;
+
+  private final List<UserStore> memories = new ArrayList<>();
+
+  @Test
+  public void reopen_replaysLog() throws IOException {
+    try (DurableUserStore store = open()) {
+      store.put(user(1, "a"));
+      store.putAll(List.of(user(2, "b"), user(1, "a2")));
+    }
+
+    try (DurableUserStore store = open()) {
+      assertThat(store.get(1)).isEqualTo(user(1, "a2"));
+      assertThat(store.get(2)).isEqualTo(user(2, "b"));
+      assertThat(store.size()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void snapshot_dropsCoveredUsersFromMemory() throws IOException {
+    try (DurableUserStore store = open()) {
+      store.put(user(1, "a"));
+      store.put(user(2, "b"));
+
+      store.snapshot();
+
+      assertThat(lastMemory().size()).isEqualTo(0);
+      assertThat(store.get(1)).isEqualTo(user(1, "a"));
+      assertThat(store.get(2)).isEqualTo(user(2, "b"));
+      assertThat(store.size()).isEqualTo(2);
+
+      store.put(user(2, "b2"));
+      store.put(user(3, "c"));
+      assertThat(store.get(2)).isEqualTo(user(2, "b2"));
+      assertThat(store.size()).isEqualTo(3);
+      assertThat(userIds(store)).containsExactly(1, 2, 3);
+
+      store.snapshot();
+
+      assertThat(lastMemory().size()).isEqualTo(0);
+      assertThat(store.get(2)).isEqualTo(user(2, "b2"));
+      assertThat(store.get(3)).isEqualTo(user(3, "c"));
+    }
+
+    try (DurableUserStore store = open()) {
+      assertThat(lastMemory().size()).isEqualTo(0);
+      assertThat(store.get(1)).isEqualTo(user(1, "a"));
+      assertThat(store.get(2)).isEqualTo(user(2, "b2"));
+      assertThat(store.get(4)).isNull();
+      assertThat(store.size()).isEqualTo(3);
+    }
+  }
+
+  @Test
+  public void snapshot_replacesDecodedUsers() throws IOException {
+    try (DurableUserStore store = open()) {
+      store.put(user(1, "a"));
+      store.snapshot();
+      // Decodes the user from the snapshot and caches it.
+      assertThat(store.get(1)).isEqualTo(user(1, "a"));
+
+      store.put(user(1, "a2"));
+      store.snapshot();
+
+      assertThat(store.get(1)).isEqualTo(user(1, "a2"));
+    }
+  }
+
+  @Test
+  public void snapshot_isNoOpWithoutNewUsers() throws IOException {
+    try (DurableUserStore store = open()) {
+      store.put(user(1, "a"));
+      store.snapshot();
+
+      store.snapshot();
+
+      assertThat(lastMemory().size()).isEqualTo(0);
+      assertThat(store.get(1)).isEqualTo(user(1, "a"));
+      assertThat(store.size()).isEqualTo(1);
+    }
+  }
+
+  private DurableUserStore open() throws IOException {
+    return DurableUserStore.open(
+        directory,
+        () -> {
+          final UserStore memory = new StripedUserStore();
+          memories.add(memory);
+          return memory;
+        },
+        10,
+        LOG);
+  }
+
+  private UserStore lastMemory() {
+    return memories.get(memories.size() - 1);
+  }
+
+  private static List<Integer> userIds(UserStore store) {
+    final List<Integer> userIds = new ArrayList<>();
+    store.forEach(user -> userIds.add(user.userId()));
+    return userIds;
+  }
+}
@@ -0,0 +1,138 @@
+package examples;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+public final class GetUserResponseCacheTest {
+  private static final String CONTENT_TYPE = "application/json";
+
+  @Test
+  public void put_cachesResponseOfReservation() {
+    final GetUserResponseCache cache = new GetUserResponseCache(10);
+    assertThat(cache.get(1)).isNull();
+    final GetUserResponseCache.Reservation reservation = cache.reserve(1);
+    // A reservation is not a response.
+    assertThat(cache.get(1)).isNull();
+
+    final GetUserResponseCache.Entry entry = cache.put(1, reservation, CONTENT_TYPE, "[1]");
+
+    assertThat(cache.get(1)).isSameInstanceAs(entry);
+    assertThat(new String(entry.json(), StandardCharsets.UTF_8)).isEqualTo("[1]");
+    assertThat(entry.contentType()).isEqualTo(CONTENT_TYPE);
+  }
+
+  @Test
+  public void reserve_sharesReservationBetweenConcurrentMisses() {
+    final GetUserResponseCache cache = new GetUserResponseCache(10);
+    final GetUserResponseCache.Reservation first = cache.reserve(1);
+
+    assertThat(cache.reserve(1)).isSameInstanceAs(first);
+    assertThat(cache.reserve(2)).isNotSameInstanceAs(first);
+  }
+
+  @Test
+  public void put_ignoresResponseIfUserWasInvalidated() {
+    final GetUserResponseCache cache = new GetUserResponseCache(10);
+    final GetUserResponseCache.Reservation reservation = cache.reserve(1);
+    final GetUserResponseCache.Reservation other = cache.reserve(2);
+
+    cache.invalidate(1);
+    final GetUserResponseCache.Entry entry = cache.put(1, reservation, CONTENT_TYPE, "[1]");
+    cache.put(2, other, CONTENT_TYPE, "[2]");
+
+    // The response is still returned to the caller, just not cached.
+    assertThat(entry).isNotNull();
+    assertThat(cache.get(1)).isNull();
+    // Invalidating one user does not affect the others.
+    assertThat(cache.get(2)).isNotNull();
+  }
+
+  @Test
+  public void invalidate_removesCachedResponse() {
+    final GetUserResponseCache cache = new GetUserResponseCache(10);
+    cache.put(1, cache.reserve(1), CONTENT_TYPE, "[1]");
+
+    cache.invalidate(1);
+
+    assertThat(cache.get(1)).isNull();
+  }
+
+  @Test
+  public void release_removesReservation() {
+    final GetUserResponseCache cache = new GetUserResponseCache(1);
+    final GetUserResponseCache.Reservation reservation = cache.reserve(1);
+
+    cache.release(1, reservation);
+    cache.put(1, reservation, CONTENT_TYPE, "[1]");
+
+    assertThat(cache.get(1)).isNull();
+    // The slot is free again: a new reservation for another user evicts nothing.
+    final GetUserResponseCache.Reservation next = cache.reserve(2);
+    assertThat(next).isNotSameInstanceAs(reservation);
+    cache.put(2, next, CONTENT_TYPE, "[2]");
+    assertThat(cache.get(2)).isNotNull();
+  }
+
+  @Test
+  public void release_keepsEntryAndNewerReservation() {
+    final GetUserResponseCache cache = new GetUserResponseCache(10);
+    final GetUserResponseCache.Reservation stale = cache.reserve(1);
+    cache.invalidate(1);
+    final GetUserResponseCache.Reservation current = cache.reserve(1);
+
+    cache.release(1, stale);
+    cache.put(1, current, CONTENT_TYPE, "[1]");
+    cache.release(1, current);
+
+    assertThat(cache.get(1)).isNotNull();
+  }
+
+  @Test
+  public void reserve_evictsEntryWhenFull() {
+    // A single stripe, holding a single entry.
+    final GetUserResponseCache cache = new GetUserResponseCache(1);
+    cache.put(1, cache.reserve(1), CONTENT_TYPE, "[1]");
+
+    final GetUserResponseCache.Reservation reservation = cache.reserve(2);
+
+    assertThat(cache.get(1)).isNull();
+    cache.put(2, reservation, CONTENT_TYPE, "[2]");
+    assertThat(cache.get(2)).isNotNull();
+  }
+
+  @Test
+  public void maxSizeZero_disablesCache() {
+    final GetUserResponseCache cache = new GetUserResponseCache(0);
+    final GetUserResponseCache.Reservation reservation = cache.reserve(1);
+
+    final GetUserResponseCache.Entry entry = cache.put(1, reservation, CONTENT_TYPE, "[1]");
+    cache.release(1, reservation);
+
+    assertThat(reservation).isNull();
+    assertThat(entry).isNotNull();
+    assertThat(cache.get(1)).isNull();
+  }
+
+  @Test
+  public void etag_differsForEachRepresentation() {
+    final GetUserResponseCache.Entry entry = GetUserResponseCache.encode(CONTENT_TYPE, "[1]");
+    final String json = entry.etag(false, null);
+
+    assertThat(entry.etag(false, null)).isEqualTo(json);
+    assertThat(entry.etag(true, null)).isNotEqualTo(json);
+    assertThat(entry.etag(false, HttpCompression.GZIP)).isNotEqualTo(json);
+    assertThat(GetUserResponseCache.encode(CONTENT_TYPE, "[2]").etag(false, null))
+        .isNotEqualTo(json);
+  }
+
+  @Test
+  public void matches_usesWeakComparison() {
+    assertThat(GetUserResponseCache.matches("\"a\"", "\"a\"")).isTrue();
+    assertThat(GetUserResponseCache.matches("\"b\", W/\"a\"", "\"a\"")).isTrue();
+    assertThat(GetUserResponseCache.matches("*", "\"a\"")).isTrue();
+    assertThat(GetUserResponseCache.matches("\"b\"", "\"a\"")).isFalse();
+    assertThat(GetUserResponseCache.matches(null, "\"a\"")).isFalse();
+  }
+}
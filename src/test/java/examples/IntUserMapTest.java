@@ -0,0 +1,93 @@
+package examples;
+
+import static com.google.common.truth.Truth.assertThat;
+import static examples.UserLogTest.user;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import soiagen.user.User;
+
+public final class IntUserMapTest {
+  @Test
+  public void get_returnsNullForMissingUser() {
+    final IntUserMap map = new IntUserMap();
+
+    assertThat(map.get(0)).isNull();
+    assertThat(map.get(-1)).isNull();
+    assertThat(map.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void put_replacesUserWithSameId() {
+    final IntUserMap map = new IntUserMap();
+    final User first = user(7, "first");
+    final User second = user(7, "second");
+
+    assertThat(map.put(first)).isNull();
+    assertThat(map.put(second)).isSameInstanceAs(first);
+
+    assertThat(map.get(7)).isSameInstanceAs(second);
+    assertThat(map.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void put_acceptsWholeIntRange() {
+    final IntUserMap map = new IntUserMap();
+    final int[] userIds = {0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE};
+    for (int userId : userIds) {
+      map.put(user(userId, "user" + userId));
+    }
+
+    for (int userId : userIds) {
+      assertThat(map.get(userId).name()).isEqualTo("user" + userId);
+    }
+    assertThat(map.size()).isEqualTo(userIds.length);
+  }
+
+  @Test
+  public void put_keepsEveryUserAcrossResizes() {
+    final IntUserMap map = new IntUserMap();
+    // Sequential ids, then ids colliding in the low bits, over many resizes.
+    for (int i = 0; i < 10_000; i++) {
+      map.put(user(i, "a" + i));
+      map.put(user(i << 16, "b" + i));
+    }
+    // Replacing users after the resizes doesn't add entries.
+    for (int i = 0; i < 10_000; i += 2) {
+      map.put(user(i, "c" + i));
+    }
+
+    assertThat(map.size()).isEqualTo(19_999);
+    for (int i = 1; i < 10_000; i++) {
+      assertThat(map.get(i).name()).isEqualTo((i % 2 == 0 ? "c" : "a") + i);
+      assertThat(map.get(i << 16).name()).isEqualTo("b" + i);
+    }
+    assertThat(map.get(0).name()).isEqualTo("c0");
+    assertThat(map.get(10_000)).isNull();
+  }
+
+  @Test
+  public void toArrayAndForEach_returnEveryUserOnce() {
+    final IntUserMap map = new IntUserMap();
+    for (int i = 0; i < 100; i++) {
+      map.put(user(i * 31, "user" + i));
+    }
+
+    final List<User> visited = new ArrayList<>();
+    map.forEach(visited::add);
+    final User[] array = map.toArray();
+
+    assertThat(array.length).isEqualTo(100);
+    assertThat(visited).hasSize(100);
+    final Set<Integer> userIds = new HashSet<>();
+    for (User user : array) {
+      userIds.add(user.userId());
+    }
+    for (int i = 0; i < 100; i++) {
+      assertThat(userIds.contains(i * 31)).isTrue();
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package examples;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.junit.jupiter.api.Test;
+
+public final class LimitedInputStreamTest {
+  @Test
+  public void readAllBytes_acceptsBodyOfExactlyLimit() throws IOException {
+    final InputStream in = new LimitedInputStream(new ByteArrayInputStream(new byte[10]), 10);
+
+    assertThat(in.readAllBytes().length).isEqualTo(10);
+    assertThat(in.read()).isEqualTo(-1);
+  }
+
+  @Test
+  public void readAllBytes_failsPastLimit() {
+    final InputStream in = new LimitedInputStream(new ByteArrayInputStream(new byte[11]), 10);
+
+    final LimitedInputStream.LimitExceededException e =
+        assertThrows(LimitedInputStream.LimitExceededException.class, in::readAllBytes);
+    assertThat(e.getMessage()).isEqualTo("body larger than 10 bytes");
+  }
+
+  @Test
+  public void read_failsOnFirstByteOverLimit() throws IOException {
+    final InputStream in = new LimitedInputStream(new ByteArrayInputStream(new byte[3]), 2);
+    assertThat(in.read()).isEqualTo(0);
+    assertThat(in.read()).isEqualTo(0);
+
+    assertThrows(LimitedInputStream.LimitExceededException.class, in::read);
+  }
+
+  @Test
+  public void read_readsAtMostOneBytePastLimitFromUnderlyingStream() {
+    final ByteArrayInputStream underlying = new ByteArrayInputStream(new byte[100]);
+    final InputStream in = new LimitedInputStream(underlying, 10);
+
+    assertThrows(
+        LimitedInputStream.LimitExceededException.class, () -> in.read(new byte[100], 0, 100));
+    assertThat(underlying.available()).isEqualTo(89);
+  }
+
+  @Test
+  public void read_keepsFailingPastLimit() {
+    final InputStream in = new LimitedInputStream(new ByteArrayInputStream(new byte[100]), 10);
+    assertThrows(LimitedInputStream.LimitExceededException.class, in::readAllBytes);
+
+    assertThrows(LimitedInputStream.LimitExceededException.class, () -> in.read(new byte[10]));
+    assertThrows(LimitedInputStream.LimitExceededException.class, in::read);
+  }
+
+  @Test
+  public void skip_countsTowardsLimit() throws IOException {
+    final InputStream in = new LimitedInputStream(new ByteArrayInputStream(new byte[20]), 10);
+    assertThat(in.skip(8)).isEqualTo(8L);
+    assertThat(in.read(new byte[2])).isEqualTo(2);
+
+    assertThrows(LimitedInputStream.LimitExceededException.class, () -> in.skip(5));
+  }
+
+  @Test
+  public void limitZero_acceptsOnlyEmptyBody() throws IOException {
+    assertThat(
+            new LimitedInputStream(new ByteArrayInputStream(new byte[0]), 0).readAllBytes().length)
+        .isEqualTo(0);
+    final InputStream in = new LimitedInputStream(new ByteArrayInputStream(new byte[1]), 0);
+
+    assertThrows(LimitedInputStream.LimitExceededException.class, in::readAllBytes);
+  }
+}
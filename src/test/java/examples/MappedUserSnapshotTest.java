@@ -0,0 +1,70 @@
+package examples;
+
+import static com.google.common.truth.Truth.assertThat;
+import static examples.UserLogTest.user;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import soiagen.user.User;
+
+public final class MappedUserSnapshotTest {
+  private static final AccessLog LOG = new AccessLog(AccessLog.Level.OFF);
+
+  @TempDir Path directory;
+
+  @Test
+  public void get_decodesRecordsAcrossRegionBoundaries() throws IOException {
+    final UserStore users = new StripedUserStore();
+    // Records of varying lengths, so that they start and end at every offset of a region.
+    for (int userId = 0; userId < 100; userId++) {
+      users.put(user(userId, "x".repeat(userId * 7 % 61)));
+    }
+    final Path path = write(users);
+
+    for (long regionSize : new long[] {1, 7, 64, 1000, 1L << 30}) {
+      try (MappedUserSnapshot snapshot = MappedUserSnapshot.open(path, 1, regionSize)) {
+        for (int userId = 0; userId < 100; userId++) {
+          assertThat(snapshot.get(userId)).isEqualTo(user(userId, "x".repeat(userId * 7 % 61)));
+        }
+        final List<User> all = new ArrayList<>();
+        snapshot.forEach(userId -> true, all::add);
+        assertThat(all).hasSize(100);
+      }
+    }
+  }
+
+  @Test
+  public void open_mapsEmptySnapshot() throws IOException {
+    final Path path = write(new StripedUserStore());
+
+    try (MappedUserSnapshot snapshot = MappedUserSnapshot.open(path, 1, 7)) {
+      assertThat(snapshot.size()).isEqualTo(0);
+      assertThat(snapshot.get(0)).isNull();
+    }
+  }
+
+  @Test
+  public void open_rejectsOtherFiles() throws IOException {
+    final Path tooShort = Files.write(directory.resolve("short"), new byte[] {1, 2, 3});
+    final Path noMagic = Files.write(directory.resolve("no-magic"), new byte[64]);
+
+    assertThrows(IOException.class, () -> MappedUserSnapshot.open(tooShort, 1));
+    assertThrows(IOException.class, () -> MappedUserSnapshot.open(noMagic, 1));
+    assertThat(MappedUserSnapshot.isIndexed(tooShort)).isFalse();
+    assertThat(MappedUserSnapshot.isIndexed(noMagic)).isFalse();
+  }
+
+  /** Writes the users to a snapshot of sequence 1 and returns its path. */
+  private Path write(UserStore users) throws IOException {
+    UserSnapshots.write(directory, 1, users);
+    try (MappedUserSnapshot snapshot = UserSnapshots.openLatest(directory, LOG)) {
+      return snapshot.path();
+    }
+  }
+}
@@ -0,0 +1,191 @@
+package examples;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public final class NioHttpTransportTest {
+  private static final AccessLog LOG = new AccessLog(AccessLog.Level.OFF);
+
+  private NioHttpTransport transport;
+
+  @BeforeEach
+  public void start() throws IOException {
+    transport = new NioHttpTransport(new InetSocketAddress("127.0.0.1", 0), LOG);
+    // Echoes the request body, or sends the status code given as the query string.
+    transport.createContext(
+        "/",
+        exchange -> {
+          final byte[] body = exchange.getRequestBody().readAllBytes();
+          final String query = exchange.getRequestURI().getQuery();
+          if (query != null) {
+            exchange.sendResponseHeaders(Integer.parseInt(query), -1);
+            exchange.close();
+            return;
+          }
+          final byte[] response = body.length > 0 ? body : "hello".getBytes(StandardCharsets.UTF_8);
+          exchange.sendResponseHeaders(200, response.length);
+          try (OutputStream os = exchange.getResponseBody()) {
+            os.write(response);
+          }
+        });
+    transport.start();
+  }
+
+  @AfterEach
+  public void stop() {
+    transport.stop();
+  }
+
+  @Test
+  public void get_sendsBodyWithContentLength() throws IOException {
+    final String response = exchange("GET /users HTTP/1.1\r\nConnection: close\r\n\r\n");
+
+    assertThat(response).startsWith("HTTP/1.1 200 OK\r\n");
+    assertThat(response).contains("Content-Length: 5\r\n");
+    assertThat(response).endsWith("\r\n\r\nhello");
+  }
+
+  @Test
+  public void post_readsBodyOfContentLength() throws IOException {
+    final String response =
+        exchange("POST / HTTP/1.1\r\nContent-Length: 3\r\nConnection: close\r\n\r\nabc");
+
+    assertThat(response).contains("Content-Length: 3\r\n");
+    assertThat(response).endsWith("\r\n\r\nabc");
+  }
+
+  @Test
+  public void head_sendsContentLengthWithoutBody() throws IOException {
+    final String response = exchange("HEAD / HTTP/1.1\r\nConnection: close\r\n\r\n");
+
+    assertThat(response).startsWith("HTTP/1.1 200 OK\r\n");
+    assertThat(response).contains("Content-Length: 5\r\n");
+    assertThat(response).endsWith("\r\n\r\n");
+  }
+
+  @Test
+  public void notModified_hasNoContentLength() throws IOException {
+    final String response = exchange("GET /?304 HTTP/1.1\r\nConnection: close\r\n\r\n");
+
+    assertThat(response).startsWith("HTTP/1.1 304 Not Modified\r\n");
+    assertThat(response).doesNotContain("Content-Length");
+    assertThat(response).endsWith("\r\n\r\n");
+  }
+
+  @Test
+  public void preconditionFailed_hasReasonPhrase() throws IOException {
+    final String response = exchange("POST /?412 HTTP/1.1\r\nConnection: close\r\n\r\n");
+
+    assertThat(response).startsWith("HTTP/1.1 412 Precondition Failed\r\n");
+  }
+
+  @Test
+  public void chunkedRequest_getsLengthRequired() throws IOException {
+    // Without the chunks: the server closes the connection without reading them.
+    final String response = exchange("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n");
+
+    assertThat(response).startsWith("HTTP/1.1 411 Length Required\r\n");
+    assertThat(response).contains("Connection: close\r\n");
+  }
+
+  @Test
+  public void invalidHeader_getsBadRequest() throws IOException {
+    final String response = exchange("GET / HTTP/1.1\r\nno colon\r\n\r\n");
+
+    assertThat(response).startsWith("HTTP/1.1 400 Bad Request\r\n");
+  }
+
+  @Test
+  public void invalidRequestLine_getsBadRequest() throws IOException {
+    final String response = exchange("GET /\r\nConnection: close\r\n\r\n");
+
+    assertThat(response).startsWith("HTTP/1.1 400 Bad Request\r\n");
+  }
+
+  @Test
+  public void headersLargerThanBuffer_getHeaderFieldsTooLarge() throws IOException {
+    // Exactly fills the read buffer, so that the server reads it all before it closes.
+    final String head = "GET / HTTP/1.1\r\nX-Large: ";
+    final String response = exchange(head + "x".repeat(16 * 1024 - head.length()));
+
+    assertThat(response).startsWith("HTTP/1.1 431 Request Header Fields Too Large\r\n");
+  }
+
+  @Test
+  public void bodyLargerThanMaximum_getsContentTooLarge() throws IOException {
+    transport.setMaxRequestBodySize(2);
+
+    final String response = exchange("POST / HTTP/1.1\r\nContent-Length: 3\r\n\r\n");
+
+    assertThat(response).startsWith("HTTP/1.1 413 Content Too Large\r\n");
+  }
+
+  @Test
+  public void expectContinue_getsInterimResponseBeforeBody() throws IOException {
+    try (Socket socket = connect()) {
+      final OutputStream out = socket.getOutputStream();
+      out.write(
+          ascii(
+              "POST / HTTP/1.1\r\nContent-Length: 3\r\nExpect: 100-continue\r\n"
+                  + "Connection: close\r\n\r\n"));
+      out.flush();
+      final byte[] interim = socket.getInputStream().readNBytes(25);
+      assertThat(new String(interim, StandardCharsets.ISO_8859_1))
+          .isEqualTo("HTTP/1.1 100 Continue\r\n\r\n");
+
+      out.write(ascii("abc"));
+      out.flush();
+      final String response = readAll(socket.getInputStream());
+
+      assertThat(response).startsWith("HTTP/1.1 200 OK\r\n");
+      assertThat(response).endsWith("\r\n\r\nabc");
+    }
+  }
+
+  @Test
+  public void keepAlive_handlesPipelinedRequestsInOrder() throws IOException {
+    final String response =
+        exchange(
+            "POST / HTTP/1.1\r\nContent-Length: 1\r\n\r\na"
+                + "POST / HTTP/1.1\r\nContent-Length: 1\r\nConnection: close\r\n\r\nb");
+
+    final int second = response.indexOf("HTTP/1.1 200 OK", 1);
+    assertThat(second).isGreaterThan(0);
+    assertThat(response.substring(0, second)).endsWith("\r\n\r\na");
+    assertThat(response.substring(second)).endsWith("\r\n\r\nb");
+  }
+
+  /** Sends {@code request} on a new connection and returns everything received until it closes. */
+  private String exchange(String request) throws IOException {
+    try (Socket socket = connect()) {
+      socket.getOutputStream().write(ascii(request));
+      socket.getOutputStream().flush();
+      return readAll(socket.getInputStream());
+    }
+  }
+
+  private Socket connect() throws IOException {
+    final Socket socket = new Socket();
+    socket.connect(transport.getAddress());
+    // Fail rather than hang if the server never closes the connection.
+    socket.setSoTimeout(5000);
+    return socket;
+  }
+
+  private static String readAll(InputStream in) throws IOException {
+    return new String(in.readAllBytes(), StandardCharsets.ISO_8859_1);
+  }
+
+  private static byte[] ascii(String string) {
+    return string.getBytes(StandardCharsets.ISO_8859_1);
+  }
+}
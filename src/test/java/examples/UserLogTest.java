@@ -0,0 +1,162 @@
+package examples;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import soiagen.user.User;
+
+public final class UserLogTest {
+  private static final AccessLog LOG = new AccessLog(AccessLog.Level.OFF);
+
+  @TempDir Path directory;
+
+  @Test
+  public void replay_returnsAppendedUsersInOrder() throws IOException {
+    final List<User> durable = new ArrayList<>();
+    try (UserLog log = new UserLog(directory, 0, durable::add, LOG)) {
+      log.append(user(1, "a")).join();
+      log.appendAll(List.of(user(2, "b"), user(3, "c"))).join();
+      log.append(user(1, "d")).join();
+    }
+
+    assertThat(durable).containsExactly(user(1, "a"), user(2, "b"), user(3, "c"), user(1, "d"));
+    assertThat(replay(0))
+        .containsExactly(user(1, "a"), user(2, "b"), user(3, "c"), user(1, "d"))
+        .inOrder();
+  }
+
+  @Test
+  public void replay_stopsAtTruncatedRecord() throws IOException {
+    try (UserLog log = new UserLog(directory, 0, user -> {}, LOG)) {
+      log.append(user(1, "a")).join();
+      log.append(user(2, "b")).join();
+    }
+    final Path segment = onlySegment();
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 1);
+    }
+
+    assertThat(replay(0)).containsExactly(user(1, "a"));
+  }
+
+  @Test
+  public void replay_dropsWholeBatchWhenTruncated() throws IOException {
+    try (UserLog log = new UserLog(directory, 0, user -> {}, LOG)) {
+      log.append(user(1, "a")).join();
+      log.appendAll(List.of(user(2, "b"), user(3, "c"))).join();
+    }
+    final Path segment = onlySegment();
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 1);
+    }
+
+    assertThat(replay(0)).containsExactly(user(1, "a"));
+  }
+
+  @Test
+  public void replay_stopsAtCorruptedRecord() throws IOException {
+    try (UserLog log = new UserLog(directory, 0, user -> {}, LOG)) {
+      log.append(user(1, "a")).join();
+      log.append(user(2, "b")).join();
+      log.append(user(3, "c")).join();
+    }
+    final Path segment = onlySegment();
+    final byte[] bytes = Files.readAllBytes(segment);
+    final int firstRecordSize = 8 + ByteBuffer.wrap(bytes).getInt(0);
+    // Flips a bit in the body of the second record.
+    bytes[firstRecordSize + 8] ^= 1;
+    Files.write(segment, bytes);
+
+    assertThat(replay(0)).containsExactly(user(1, "a"));
+  }
+
+  @Test
+  public void replay_stopsAtCorruptedLength() throws IOException {
+    try (UserLog log = new UserLog(directory, 0, user -> {}, LOG)) {
+      log.append(user(1, "a")).join();
+    }
+    final Path segment = onlySegment();
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.APPEND)) {
+      channel.write(ByteBuffer.allocate(8).putInt(0x7fffffff).putInt(0).flip());
+    }
+
+    assertThat(replay(0)).containsExactly(user(1, "a"));
+  }
+
+  @Test
+  public void rotate_startsNewSegmentOnlyAfterAppends() throws IOException {
+    try (UserLog log = new UserLog(directory, 5, user -> {}, LOG)) {
+      assertThat(log.rotate().join()).isEqualTo(5L);
+      log.append(user(1, "a")).join();
+      assertThat(log.rotate().join()).isEqualTo(6L);
+      log.append(user(2, "b")).join();
+    }
+
+    assertThat(replay(6)).containsExactly(user(2, "b"));
+    UserLog.deleteSegmentsBefore(directory, 6);
+    assertThat(replay(0)).containsExactly(user(2, "b"));
+  }
+
+  @Test
+  public void append_failsOnceClosed() throws IOException {
+    final UserLog log = new UserLog(directory, 0, user -> {}, LOG);
+    log.close();
+
+    final CompletionException e =
+        assertThrows(CompletionException.class, () -> log.append(user(1, "a")).join());
+    assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  public void appendAll_failsWholeBatchWhenApplyingOneUserFails() throws IOException {
+    final List<User> applied = new ArrayList<>();
+    try (UserLog log =
+        new UserLog(
+            directory,
+            0,
+            user -> {
+              if (user.userId() == 2) {
+                throw new IllegalStateException("boom");
+              }
+              applied.add(user);
+            },
+            LOG)) {
+      final CompletionException e =
+          assertThrows(
+              CompletionException.class,
+              () -> log.appendAll(List.of(user(1, "a"), user(2, "b"), user(3, "c"))).join());
+      assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+    }
+
+    // The users are durable nonetheless, and the others were applied.
+    assertThat(applied).containsExactly(user(1, "a"), user(3, "c"));
+    assertThat(replay(0)).hasSize(3);
+  }
+
+  private List<User> replay(long fromSequence) throws IOException {
+    final List<User> users = new ArrayList<>();
+    UserLog.replay(directory, fromSequence, users::add, LOG);
+    return users;
+  }
+
+  private Path onlySegment() throws IOException {
+    final List<Path> segments = UserLog.listSegments(directory);
+    assertThat(segments).hasSize(1);
+    return segments.get(0);
+  }
+
+  static User user(int userId, String name) {
+    return User.partialBuilder().setUserId(userId).setName(name).build();
+  }
+}
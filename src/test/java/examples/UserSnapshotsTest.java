@@ -0,0 +1,140 @@
+package examples;
+
+import static com.google.common.truth.Truth.assertThat;
+import static examples.UserLogTest.user;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import soiagen.user.UserRegistry;
+
+public final class UserSnapshotsTest {
+  private static final AccessLog LOG = new AccessLog(AccessLog.Level.OFF);
+
+  @TempDir Path directory;
+
+  @Test
+  public void write_roundTripsThroughMappedSnapshot() throws IOException {
+    final UserStore users = new StripedUserStore();
+    for (int userId : new int[] {42, -7, 3, 1000}) {
+      users.put(user(userId, "user " + userId));
+    }
+
+    UserSnapshots.write(directory, 4, users);
+
+    try (MappedUserSnapshot snapshot = UserSnapshots.openLatest(directory, LOG)) {
+      assertThat(snapshot.sequence()).isEqualTo(4L);
+      assertThat(snapshot.size()).isEqualTo(4);
+      assertThat(snapshot.get(3)).isEqualTo(user(3, "user 3"));
+      assertThat(snapshot.get(-7)).isEqualTo(user(-7, "user -7"));
+      assertThat(snapshot.get(5)).isNull();
+      assertThat(snapshot.contains(1000)).isTrue();
+      assertThat(userIds(snapshot)).containsExactly(-7, 3, 42, 1000).inOrder();
+    }
+  }
+
+  @Test
+  public void write_mergesUsersWithBase() throws IOException {
+    final UserStore first = new StripedUserStore();
+    first.put(user(1, "a"));
+    first.put(user(2, "b"));
+    first.put(user(4, "d"));
+    UserSnapshots.write(directory, 1, first);
+    final UserStore second = new StripedUserStore();
+    second.put(user(2, "b2"));
+    second.put(user(3, "c"));
+    second.put(user(5, "e"));
+
+    try (MappedUserSnapshot base = UserSnapshots.openLatest(directory, LOG)) {
+      UserSnapshots.write(directory, 2, second, base);
+    }
+
+    try (MappedUserSnapshot snapshot = UserSnapshots.openLatest(directory, LOG)) {
+      assertThat(snapshot.sequence()).isEqualTo(2L);
+      assertThat(userIds(snapshot)).containsExactly(1, 2, 3, 4, 5).inOrder();
+      assertThat(snapshot.get(1)).isEqualTo(user(1, "a"));
+      assertThat(snapshot.get(2)).isEqualTo(user(2, "b2"));
+      assertThat(snapshot.get(4)).isEqualTo(user(4, "d"));
+      assertThat(snapshot.get(5)).isEqualTo(user(5, "e"));
+    }
+    // The older snapshot is deleted.
+    assertThat(fileNames()).containsExactly("users-0000000000000002.snapshot");
+  }
+
+  @Test
+  public void write_deletesCoveredLogSegments() throws IOException {
+    try (UserLog log = new UserLog(directory, 0, user -> {}, LOG)) {
+      log.append(user(1, "a")).join();
+      log.rotate().join();
+      log.append(user(2, "b")).join();
+    }
+    final UserStore users = new StripedUserStore();
+    users.put(user(1, "a"));
+
+    UserSnapshots.write(directory, 1, users);
+
+    assertThat(fileNames())
+        .containsExactly("users-0000000000000001.log", "users-0000000000000001.snapshot");
+  }
+
+  @Test
+  public void openLatest_emptySnapshot() throws IOException {
+    UserSnapshots.write(directory, 1, new StripedUserStore());
+
+    try (MappedUserSnapshot snapshot = UserSnapshots.openLatest(directory, LOG)) {
+      assertThat(snapshot.size()).isEqualTo(0);
+      assertThat(snapshot.get(1)).isNull();
+    }
+  }
+
+  @Test
+  public void openLatest_convertsLegacySnapshot() throws IOException {
+    final UserRegistry registry =
+        UserRegistry.builder().setUsers(List.of(user(9, "i"), user(2, "b"))).build();
+    Files.write(
+        directory.resolve("users-0000000000000003.snapshot"),
+        UserRegistry.SERIALIZER.toBytes(registry).toByteArray());
+
+    try (MappedUserSnapshot snapshot = UserSnapshots.openLatest(directory, LOG)) {
+      assertThat(snapshot.sequence()).isEqualTo(3L);
+      assertThat(userIds(snapshot)).containsExactly(2, 9).inOrder();
+      assertThat(snapshot.get(9)).isEqualTo(user(9, "i"));
+    }
+    assertThat(MappedUserSnapshot.isIndexed(directory.resolve("users-0000000000000003.snapshot")))
+        .isTrue();
+  }
+
+  @Test
+  public void openLatest_deletesTempFiles() throws IOException {
+    UserSnapshots.write(directory, 1, new StripedUserStore());
+    Files.write(directory.resolve("users-0000000000000002.snapshot.tmp"), new byte[] {1, 2});
+
+    try (MappedUserSnapshot snapshot = UserSnapshots.openLatest(directory, LOG)) {
+      assertThat(snapshot.sequence()).isEqualTo(1L);
+    }
+    assertThat(fileNames()).containsExactly("users-0000000000000001.snapshot");
+  }
+
+  @Test
+  public void openLatest_returnsNullWithoutSnapshot() throws IOException {
+    assertThat(UserSnapshots.openLatest(directory, LOG)).isNull();
+    assertThat(UserSnapshots.openLatest(directory.resolve("missing"), LOG)).isNull();
+  }
+
+  private static List<Integer> userIds(MappedUserSnapshot snapshot) {
+    final List<Integer> userIds = new ArrayList<>();
+    snapshot.forEach(userId -> true, user -> userIds.add(user.userId()));
+    return userIds;
+  }
+
+  private List<String> fileNames() throws IOException {
+    try (Stream<Path> paths = Files.list(directory)) {
+      return paths.map(path -> path.getFileName().toString()).sorted().toList();
+    }
+  }
+}